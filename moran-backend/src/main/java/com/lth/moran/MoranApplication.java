@@ -1,27 +1,28 @@
 package com.lth.moran;
 
-import com.lth.moran.entity.Quota;
 import com.lth.moran.entity.User;
-import com.lth.moran.repository.QuotaRepository;
 import com.lth.moran.repository.UserRepository;
 import com.lth.moran.service.AuthService;
+import com.lth.moran.service.QuotaService;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.security.crypto.password.PasswordEncoder;
 
 @SpringBootApplication
+@EnableScheduling
 public class MoranApplication implements CommandLineRunner {
 
     private final UserRepository userRepository;
-    private final QuotaRepository quotaRepository;
+    private final QuotaService quotaService;
     private final AuthService authService;
     private final PasswordEncoder passwordEncoder;
 
-    public MoranApplication(UserRepository userRepository, QuotaRepository quotaRepository,
+    public MoranApplication(UserRepository userRepository, QuotaService quotaService,
                             AuthService authService, PasswordEncoder passwordEncoder) {
         this.userRepository = userRepository;
-        this.quotaRepository = quotaRepository;
+        this.quotaService = quotaService;
         this.authService = authService;
         this.passwordEncoder = passwordEncoder;
     }
@@ -38,11 +39,7 @@ public class MoranApplication implements CommandLineRunner {
             System.out.println("Default admin exists: admin/admin");
         }
 
-        // 默认quota
-        if (quotaRepository.findById(1L).isEmpty()) {
-            Quota quota = new Quota();
-            quota.setTotalSpace(10737418240L);  // 10GB
-            quotaRepository.save(quota);
-        }
+        // 默认quota（quota.total，默认10GB）
+        quotaService.ensureQuota(admin.getId());
     }
 }
\ No newline at end of file
@@ -2,8 +2,11 @@ package com.lth.moran.config;
 
 import com.lth.moran.filter.JwtAuthenticationFilter;
 import com.lth.moran.util.JwtUtil;
+import com.lth.moran.util.TokenCache;
+import jakarta.servlet.DispatcherType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.boot.actuate.autoconfigure.security.servlet.EndpointRequest;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Lazy;
@@ -32,10 +35,12 @@ public class SecurityConfig {
 
     private final JwtUtil jwtUtil;
     private final UserDetailsService userDetailsService;
+    private final TokenCache tokenCache;
 
-    public SecurityConfig(JwtUtil jwtUtil, @Lazy UserDetailsService userDetailsService) {
+    public SecurityConfig(JwtUtil jwtUtil, @Lazy UserDetailsService userDetailsService, TokenCache tokenCache) {
         this.jwtUtil = jwtUtil;
         this.userDetailsService = userDetailsService;
+        this.tokenCache = tokenCache;
     }
 
     @Bean
@@ -62,15 +67,17 @@ public class SecurityConfig {
                 .cors(cors -> cors.configurationSource(corsConfigurationSource()))
                 .sessionManagement(session -> session.sessionCreationPolicy(SessionCreationPolicy.STATELESS))
                 .authorizeHttpRequests(auth -> auth
+                        .dispatcherTypeMatchers(DispatcherType.ASYNC).permitAll()  // 流式响应完成后的异步分派，原请求已鉴权
                         .requestMatchers(HttpMethod.OPTIONS, "/api/**").permitAll()  // 允许CORS preflight OPTIONS
                         .requestMatchers("/api/auth/**").permitAll()  // Auth endpoints
+                        .requestMatchers(EndpointRequest.to("health", "prometheus")).permitAll()  // 管理端口只监听本机
                         .requestMatchers(HttpMethod.GET, "/api/files/**").hasAnyRole("ADMIN", "GUEST")  // GET for list/quota/path/preview
                         .requestMatchers(HttpMethod.POST, "/api/files/**").hasRole("ADMIN")  // Upload/create
                         .requestMatchers(HttpMethod.PUT, "/api/files/**").hasRole("ADMIN")  // Rename
                         .requestMatchers(HttpMethod.DELETE, "/api/files/**").hasRole("ADMIN")  // Delete
                         .anyRequest().authenticated()
                 )
-                .addFilterBefore(new JwtAuthenticationFilter(jwtUtil, userDetailsService), UsernamePasswordAuthenticationFilter.class);
+                .addFilterBefore(new JwtAuthenticationFilter(jwtUtil, userDetailsService, tokenCache), UsernamePasswordAuthenticationFilter.class);
         return http.build();
     }
 
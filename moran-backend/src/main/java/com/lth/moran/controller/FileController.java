@@ -1,11 +1,19 @@
 package com.lth.moran.controller;
 
+import com.lth.moran.dto.BatchResult;
+import com.lth.moran.dto.FileItem;
+import com.lth.moran.dto.FilePage;
 import com.lth.moran.entity.MoranFile;
 import com.lth.moran.entity.Quota;
 import com.lth.moran.service.FileService;
+import com.lth.moran.service.ThumbnailService;
+import com.lth.moran.util.FileStreamer;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.core.io.ByteArrayResource;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ContentDisposition;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -14,9 +22,13 @@ import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.List;
 
 @RestController
@@ -26,18 +38,68 @@ public class FileController {
     private static final Logger logger = LoggerFactory.getLogger(FileController.class);
 
     private final FileService fileService;
+    private final FileStreamer fileStreamer;
+    private final ThumbnailService thumbnailService;
 
-    public FileController(FileService fileService) {
+    public FileController(FileService fileService, FileStreamer fileStreamer, ThumbnailService thumbnailService) {
         this.fileService = fileService;
+        this.fileStreamer = fileStreamer;
+        this.thumbnailService = thumbnailService;
     }
 
     @GetMapping
     @PreAuthorize("hasAnyRole('ADMIN', 'GUEST')")
-    public ResponseEntity<List<MoranFile>> listFiles(@RequestParam(required = false) Long parentId) {
-        List<MoranFile> files = fileService.listFiles(parentId);
+    public ResponseEntity<List<FileItem>> listFiles(@RequestParam(required = false) Long parentId) {
+        List<FileItem> files = fileService.listFiles(parentId);
         return ResponseEntity.ok(files);
     }
 
+    /** 分页列表：GET /api/files?limit=50&sort=name|size|time&order=asc|desc&cursor=上一页的 nextCursor */
+    @GetMapping(params = "limit")
+    @PreAuthorize("hasAnyRole('ADMIN', 'GUEST')")
+    public ResponseEntity<FilePage> listFilesPage(@RequestParam(required = false) Long parentId,
+                                                  @RequestParam int limit,
+                                                  @RequestParam(defaultValue = "name") String sort,
+                                                  @RequestParam(defaultValue = "asc") String order,
+                                                  @RequestParam(required = false) String cursor) {
+        return ResponseEntity.ok(fileService.listFilesPage(parentId, limit, sort, order, cursor));
+    }
+
+    /**
+     * 完整列表导出（application/x-ndjson，每行一个条目），供同步客户端等一次性获取超大文件夹。
+     * recursive=true 时包含所有子孙。
+     */
+    @GetMapping("/export")
+    @PreAuthorize("hasAnyRole('ADMIN', 'GUEST')")
+    public ResponseEntity<StreamingResponseBody> exportListing(@RequestParam(required = false) Long parentId,
+                                                               @RequestParam(defaultValue = "false") boolean recursive) {
+        if (parentId != null && !fileService.getFileById(parentId).getIsFolder()) {  // Validation
+            throw new RuntimeException("Not a folder: " + parentId);
+        }
+        StreamingResponseBody body = fileStreamer.limit(outputStream -> fileService.exportListing(parentId, recursive, outputStream));
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(body);
+    }
+
+    /**
+     * 按文件名搜索：GET /api/files/search?q=report&mode=substring|prefix&ext=pdf&type=file|folder
+     * &minSize=&maxSize=&from=2024-01-01T00:00:00&to=&limit=50，结果按名称升序。
+     */
+    @GetMapping("/search")
+    @PreAuthorize("hasAnyRole('ADMIN', 'GUEST')")
+    public ResponseEntity<List<FileItem>> search(@RequestParam(required = false) String q,
+                                                 @RequestParam(defaultValue = "substring") String mode,
+                                                 @RequestParam(required = false) String ext,
+                                                 @RequestParam(required = false) String type,
+                                                 @RequestParam(required = false) Long minSize,
+                                                 @RequestParam(required = false) Long maxSize,
+                                                 @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+                                                 @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+                                                 @RequestParam(defaultValue = "50") int limit) {
+        return ResponseEntity.ok(fileService.searchFiles(q, mode, ext, type, minSize, maxSize, from, to, limit));
+    }
+
     @PostMapping("/upload")
     @PreAuthorize("hasRole('ADMIN')")
     @Transactional(propagation = Propagation.REQUIRES_NEW)
@@ -54,6 +116,33 @@ public class FileController {
         }
     }
 
+    /**
+     * 原始请求体上传（非 multipart）：文件内容直接作为 body，文件名通过参数传递。
+     * 可选请求头 X-Content-SHA256 用于完整性校验。
+     */
+    @PostMapping("/upload/raw")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<MoranFile> uploadRaw(@RequestParam String name,
+                                               @RequestParam(required = false) Long parentId,
+                                               @RequestHeader(value = "X-Content-SHA256", required = false) String sha256,
+                                               HttpServletRequest request) throws IOException {
+        logger.debug("Raw upload request for file: {}, parentId: {}", name, parentId);
+        MoranFile saved = fileService.uploadStream(request.getInputStream(), name, request.getContentLengthLong(),
+                request.getContentType(), sha256, parentId);
+        return ResponseEntity.ok(saved);
+    }
+
+    /**
+     * 秒传协商：当前用户已有相同内容时直接创建文件（hit=true），否则客户端继续正常上传。
+     */
+    @PostMapping("/upload/instant")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<InstantUploadResponse> instantUpload(@RequestBody InstantUploadRequest request) {
+        MoranFile saved = fileService.instantUpload(request.getName(), request.getSize(), request.getSha256(),
+                request.getHeadHash(), request.getMimeType(), request.getParentId());
+        return ResponseEntity.ok(new InstantUploadResponse(saved));
+    }
+
     @PostMapping("/folder")
     @PreAuthorize("hasRole('ADMIN')")
     @Transactional(propagation = Propagation.REQUIRES_NEW)
@@ -64,52 +153,98 @@ public class FileController {
 
     @GetMapping("/{id}/download")
     @PreAuthorize("hasRole('ADMIN')")
-    public ResponseEntity<ByteArrayResource> download(@PathVariable Long id) throws IOException {
+    public void download(@PathVariable Long id, HttpServletRequest request, HttpServletResponse response) throws IOException {
         MoranFile file = fileService.getFileById(id);  // Validation
-        byte[] data = fileService.downloadFile(id);
-        ByteArrayResource resource = new ByteArrayResource(data);
-        return ResponseEntity.ok()
-                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + file.getName() + "\"")
-                .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                .body(resource);
+        if (fileStreamer.checkNotModified(request, response, contentETag(file), lastModified(file))) {
+            return;
+        }
+        fileStreamer.send(request, response, fileService.getContentPath(file), MediaType.APPLICATION_OCTET_STREAM_VALUE,
+                contentDisposition("attachment", file.getName()));
     }
 
     @GetMapping("/{id}/download-zip")
     @PreAuthorize("hasRole('ADMIN')")
-    public ResponseEntity<ByteArrayResource> downloadFolderZip(@PathVariable Long id) throws IOException {
+    public ResponseEntity<StreamingResponseBody> downloadFolderZip(@PathVariable Long id) {
         MoranFile folder = fileService.getFileById(id);  // Validation
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        fileService.zipFolder(id, baos);
-        ByteArrayResource resource = new ByteArrayResource(baos.toByteArray());
+        // 边压缩边输出（chunked），首字节无需等待整个压缩包生成
+        StreamingResponseBody body = fileStreamer.limit(outputStream -> fileService.zipFolder(folder, outputStream));
         return ResponseEntity.ok()
-                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + folder.getName() + ".zip\"")
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        contentDisposition("attachment", folder.getName() + ".zip").toString())
                 .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                .body(resource);
+                .body(body);
     }
 
     @GetMapping("/{id}/preview")
     @PreAuthorize("hasAnyRole('ADMIN', 'GUEST')")
-    public ResponseEntity<ByteArrayResource> preview(@PathVariable Long id) throws IOException {
+    public void preview(@PathVariable Long id, @RequestParam(required = false) Integer size,
+                        HttpServletRequest request, HttpServletResponse response) throws IOException {
         MoranFile file = fileService.getFileById(id);
         if (file.getIsFolder()) {
             throw new RuntimeException("Cannot preview folder");
         }
-        byte[] data = fileService.downloadFile(id);
-        ByteArrayResource resource = new ByteArrayResource(data);
-        String mimeType = file.getMimeType();
-        return ResponseEntity.ok()
-                .header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + file.getName() + "\"")
-                .contentType(MediaType.parseMediaType(mimeType != null ? mimeType : MediaType.APPLICATION_OCTET_STREAM_VALUE))
-                .body(resource);
+        // 缩略图由内容与尺寸唯一确定，命中缓存时不打开文件、也不触发渲染
+        String etag = size != null ? contentETag(file) + "-" + size : contentETag(file);
+        if (fileStreamer.checkNotModified(request, response, etag, lastModified(file))) {
+            return;
+        }
+        Path content = fileService.getContentPath(file);
+        // size=256/1024/2048 时返回缩放后的 JPEG，非图片或原图更小时仍返回原文件
+        Path thumbnail = size != null ? thumbnailService.getThumbnail(file, content, size) : null;
+        if (thumbnail != null) {
+            fileStreamer.send(request, response, thumbnail, MediaType.IMAGE_JPEG_VALUE,
+                    contentDisposition("inline", file.getName()));
+            return;
+        }
+        // Range 支持让浏览器可以在音视频预览中拖动进度
+        fileStreamer.send(request, response, content, file.getMimeType(),
+                contentDisposition("inline", file.getName()));
     }
 
     @DeleteMapping("/{id}")
     @PreAuthorize("hasRole('ADMIN')")
-    public ResponseEntity<?> delete(@PathVariable Long id) throws IOException {
-        fileService.deleteFile(id);
+    public ResponseEntity<?> delete(@PathVariable Long id) {
+        fileService.deleteFile(id);  // 移入回收站
         return ResponseEntity.ok().build();
     }
 
+    /**
+     * 批量操作：POST /api/files/batch {"operation": "delete|move|copy", "ids": [...], "targetParentId": ...}，
+     * 整批一个请求、一个事务，按 ids 顺序返回每个条目的结果。
+     */
+    @PostMapping("/batch")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<List<BatchResult>> batch(@RequestBody BatchRequest request) {
+        String operation = request.getOperation() == null ? "" : request.getOperation().toLowerCase();
+        List<BatchResult> results = switch (operation) {
+            case "delete" -> fileService.deleteFiles(request.getIds());
+            case "move" -> fileService.moveFiles(request.getIds(), request.getTargetParentId());
+            case "copy" -> fileService.copyFiles(request.getIds(), request.getTargetParentId());
+            default -> throw new RuntimeException("Invalid operation: " + request.getOperation());
+        };
+        return ResponseEntity.ok(results);
+    }
+
+    @GetMapping("/trash")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<List<FileItem>> listTrash() {
+        return ResponseEntity.ok(fileService.listTrash());
+    }
+
+    @PostMapping("/trash/{id}/restore")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<MoranFile> restore(@PathVariable Long id) {
+        return ResponseEntity.ok(fileService.restoreFile(id));
+    }
+
+    /** 彻底删除，空间在后台清理完成后释放 */
+    @DeleteMapping("/trash/{id}")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> purge(@PathVariable Long id) {
+        fileService.purgeFromTrash(id);
+        return ResponseEntity.accepted().build();
+    }
+
     @PutMapping("/{id}/rename")
     @PreAuthorize("hasRole('ADMIN')")
     public ResponseEntity<MoranFile> rename(@PathVariable Long id, @RequestBody RenameRequest request) {
@@ -117,6 +252,21 @@ public class FileController {
         return ResponseEntity.ok(updated);
     }
 
+    @PutMapping("/{id}/move")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<MoranFile> move(@PathVariable Long id, @RequestBody MoveRequest request) {
+        MoranFile moved = fileService.moveFile(id, request.getTargetParentId());
+        return ResponseEntity.ok(moved);
+    }
+
+    /** 服务端复制文件或文件夹，无需下载再上传 */
+    @PostMapping("/{id}/copy")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<MoranFile> copy(@PathVariable Long id, @RequestBody CopyRequest request) {
+        MoranFile copied = fileService.copyFile(id, request.getTargetParentId());
+        return ResponseEntity.ok(copied);
+    }
+
     @GetMapping("/quota")
     @PreAuthorize("hasRole('ADMIN')")
     public ResponseEntity<Quota> getQuota() {
@@ -125,10 +275,27 @@ public class FileController {
 
     @GetMapping("/path/{id}")
     @PreAuthorize("hasRole('ADMIN')")
-    public ResponseEntity<List<MoranFile>> getPathChain(@PathVariable Long id) {
-        List<MoranFile> chain = fileService.getPathChain(id);
+    public ResponseEntity<List<FileItem>> getPathChain(@PathVariable Long id) {
+        List<FileItem> chain = fileService.getPathChain(id);
         return ResponseEntity.ok(chain);
     }
+    /** 内容寻址文件以 SHA-256 为强 ETag；旧文件内容同样不可变，用 ID 与上传时间 */
+    private static String contentETag(MoranFile file) {
+        return file.getSha256() != null ? file.getSha256() : "v" + file.getId() + "-" + lastModified(file);
+    }
+
+    private static long lastModified(MoranFile file) {
+        return file.getUploadTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    /** 非 ASCII 文件名（如中文）按 RFC 5987 编码，ASCII 文件名保持原样 */
+    private static ContentDisposition contentDisposition(String type, String filename) {
+        ContentDisposition.Builder builder = ContentDisposition.builder(type);
+        return StandardCharsets.US_ASCII.newEncoder().canEncode(filename)
+                ? builder.filename(filename).build()
+                : builder.filename(filename, StandardCharsets.UTF_8).build();
+    }
+
     static class CreateFolderRequest {
         private String name;
         private Long parentId;
@@ -138,9 +305,62 @@ public class FileController {
         public void setParentId(Long parentId) { this.parentId = parentId; }
     }
 
+    static class InstantUploadRequest {
+        private String name;
+        private Long parentId;
+        private long size;
+        private String sha256;
+        private String headHash;
+        private String mimeType;
+        public String getName() { return name; }
+        public void setName(String name) { this.name = name; }
+        public Long getParentId() { return parentId; }
+        public void setParentId(Long parentId) { this.parentId = parentId; }
+        public long getSize() { return size; }
+        public void setSize(long size) { this.size = size; }
+        public String getSha256() { return sha256; }
+        public void setSha256(String sha256) { this.sha256 = sha256; }
+        public String getHeadHash() { return headHash; }
+        public void setHeadHash(String headHash) { this.headHash = headHash; }
+        public String getMimeType() { return mimeType; }
+        public void setMimeType(String mimeType) { this.mimeType = mimeType; }
+    }
+
+    static class InstantUploadResponse {
+        private final MoranFile file;
+
+        public InstantUploadResponse(MoranFile file) { this.file = file; }
+        public boolean isHit() { return file != null; }
+        public MoranFile getFile() { return file; }
+    }
+
     static class RenameRequest {
         private String newName;
         public String getNewName() { return newName; }
         public void setNewName(String newName) { this.newName = newName; }
     }
-}
\ No newline at end of file
+
+    static class BatchRequest {
+        private String operation;
+        private List<Long> ids;
+        private Long targetParentId;  // move / copy: null means root
+        public String getOperation() { return operation; }
+        public void setOperation(String operation) { this.operation = operation; }
+        public List<Long> getIds() { return ids; }
+        public void setIds(List<Long> ids) { this.ids = ids; }
+        public Long getTargetParentId() { return targetParentId; }
+        public void setTargetParentId(Long targetParentId) { this.targetParentId = targetParentId; }
+    }
+
+    static class MoveRequest {
+        private Long targetParentId;  // null moves to root
+        public Long getTargetParentId() { return targetParentId; }
+        public void setTargetParentId(Long targetParentId) { this.targetParentId = targetParentId; }
+    }
+
+    static class CopyRequest {
+        private Long targetParentId;  // null copies to root
+        public Long getTargetParentId() { return targetParentId; }
+        public void setTargetParentId(Long targetParentId) { this.targetParentId = targetParentId; }
+    }
+}
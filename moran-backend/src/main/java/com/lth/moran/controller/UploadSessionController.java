@@ -0,0 +1,86 @@
+package com.lth.moran.controller;
+
+import com.lth.moran.entity.MoranFile;
+import com.lth.moran.service.UploadSessionService;
+import com.lth.moran.service.UploadSessionService.UploadSession;
+import jakarta.servlet.http.HttpServletRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+
+/**
+ * 分片上传会话接口：
+ * POST /api/files/uploads 创建会话 -> PUT /api/files/uploads/{id}?offset= 上传分片 -> POST /api/files/uploads/{id}/commit
+ */
+@RestController
+@RequestMapping("/api/files/uploads")
+public class UploadSessionController {
+
+    private static final Logger logger = LoggerFactory.getLogger(UploadSessionController.class);
+
+    private final UploadSessionService uploadSessionService;
+
+    public UploadSessionController(UploadSessionService uploadSessionService) {
+        this.uploadSessionService = uploadSessionService;
+    }
+
+    @PostMapping
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<UploadSession> create(@RequestBody CreateSessionRequest request) throws IOException {
+        UploadSession session = uploadSessionService.createSession(request.getName(), request.getParentId(),
+                request.getSize(), request.getMimeType(), request.getChunkSize());
+        return ResponseEntity.ok(session);
+    }
+
+    /** 查询会话进度，断线后客户端据此只补传缺失分片 */
+    @GetMapping("/{sessionId}")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<UploadSession> status(@PathVariable String sessionId) {
+        return ResponseEntity.ok(uploadSessionService.getSession(sessionId));
+    }
+
+    @PutMapping("/{sessionId}")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> uploadChunk(@PathVariable String sessionId, @RequestParam long offset,
+                                         HttpServletRequest request) throws IOException {
+        uploadSessionService.writeChunk(sessionId, offset, request.getInputStream());
+        return ResponseEntity.noContent().build();
+    }
+
+    @PostMapping("/{sessionId}/commit")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<MoranFile> commit(@PathVariable String sessionId) throws IOException {
+        MoranFile saved = uploadSessionService.commit(sessionId);
+        logger.info("Chunked upload committed: {}", saved.getId());
+        return ResponseEntity.ok(saved);
+    }
+
+    @DeleteMapping("/{sessionId}")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> abort(@PathVariable String sessionId) throws IOException {
+        uploadSessionService.abort(sessionId);
+        return ResponseEntity.ok().build();
+    }
+
+    static class CreateSessionRequest {
+        private String name;
+        private Long parentId;
+        private long size;
+        private String mimeType;
+        private Long chunkSize;
+        public String getName() { return name; }
+        public void setName(String name) { this.name = name; }
+        public Long getParentId() { return parentId; }
+        public void setParentId(Long parentId) { this.parentId = parentId; }
+        public long getSize() { return size; }
+        public void setSize(long size) { this.size = size; }
+        public String getMimeType() { return mimeType; }
+        public void setMimeType(String mimeType) { this.mimeType = mimeType; }
+        public Long getChunkSize() { return chunkSize; }
+        public void setChunkSize(Long chunkSize) { this.chunkSize = chunkSize; }
+    }
+}
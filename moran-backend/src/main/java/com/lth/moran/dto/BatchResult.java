@@ -0,0 +1,25 @@
+package com.lth.moran.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * 批量操作中单个条目的结果；失败的条目不影响其余条目。
+ */
+@Data
+@AllArgsConstructor
+public class BatchResult {
+    private Long id;
+    private boolean success;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String error;
+
+    public static BatchResult ok(Long id) {
+        return new BatchResult(id, true, null);
+    }
+
+    public static BatchResult failed(Long id, String error) {
+        return new BatchResult(id, false, error);
+    }
+}
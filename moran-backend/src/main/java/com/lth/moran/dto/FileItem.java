@@ -0,0 +1,48 @@
+package com.lth.moran.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * 列表、面包屑、搜索使用的精简视图，由 JPQL 构造器表达式直接生成，不加载实体、不关联用户。
+ */
+@Data
+@NoArgsConstructor
+public class FileItem {
+    private Long id;
+    private String name;
+    private String path;
+    private Long size;
+    private String mimeType;
+    private String sha256;
+    private LocalDateTime uploadTime;
+    private Long parentId;
+    private Boolean isFolder;
+    private Boolean lost = false;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private LocalDateTime deletedAt;  // 仅回收站列表
+
+    /** JPQL: SELECT new com.lth.moran.dto.FileItem(f.id, f.name, f.path, f.size, f.mimeType, f.sha256, f.uploadTime, f.parentId, f.isFolder) */
+    public FileItem(Long id, String name, String path, Long size, String mimeType, String sha256,
+                    LocalDateTime uploadTime, Long parentId, Boolean isFolder) {
+        this.id = id;
+        this.name = name;
+        this.path = path;
+        this.size = size;
+        this.mimeType = mimeType;
+        this.sha256 = sha256;
+        this.uploadTime = uploadTime;
+        this.parentId = parentId;
+        this.isFolder = isFolder;
+    }
+
+    /** 回收站列表，附带删除时间 */
+    public FileItem(Long id, String name, String path, Long size, String mimeType, String sha256,
+                    LocalDateTime uploadTime, Long parentId, Boolean isFolder, LocalDateTime deletedAt) {
+        this(id, name, path, size, mimeType, sha256, uploadTime, parentId, isFolder);
+        this.deletedAt = deletedAt;
+    }
+}
@@ -0,0 +1,16 @@
+package com.lth.moran.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 分页列表的一页；nextCursor 为 null 表示没有更多数据。
+ */
+@Data
+@AllArgsConstructor
+public class FilePage {
+    private List<FileItem> items;
+    private String nextCursor;
+}
@@ -0,0 +1,30 @@
+package com.lth.moran.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * 内容寻址存储中的一个物理文件，以 SHA-256 为键；多个 MoranFile 可以引用同一个 Blob。
+ */
+@Entity
+@Table(name = "blobs")
+@Data
+public class Blob {
+    @Id
+    @Column(length = 64)
+    private String hash;  // Hex SHA-256
+
+    @Column(nullable = false)
+    private Long size;
+
+    @Column(name = "head_hash", length = 64)
+    private String headHash;  // Hex SHA-256 of the first BlobStore.HEAD_SIZE bytes, used by instant upload
+
+    @Column(name = "ref_count", nullable = false)
+    private Long refCount = 0L;  // Number of MoranFile rows pointing at this blob
+
+    @Column(name = "created_time")
+    private LocalDateTime createdTime = LocalDateTime.now();
+}
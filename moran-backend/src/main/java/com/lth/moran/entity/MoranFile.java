@@ -1,12 +1,17 @@
 package com.lth.moran.entity;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
+import jakarta.persistence.FetchType;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
+import jakarta.persistence.PrePersist;
+import jakarta.persistence.PreUpdate;
 import jakarta.persistence.Table;
 import jakarta.persistence.Transient;
 import lombok.Data;
@@ -14,7 +19,18 @@ import lombok.Data;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "files")
+@Table(name = "files", indexes = {
+        @Index(name = "idx_files_user_ancestors", columnList = "user_id, ancestors"),
+        // 分页列表的排序键索引，(user_id, parent_id, deleted) 定位文件夹后按 key 顺序扫描
+        @Index(name = "idx_files_list_name", columnList = "user_id, parent_id, deleted, name, id"),
+        @Index(name = "idx_files_list_size", columnList = "user_id, parent_id, deleted, size, id"),
+        @Index(name = "idx_files_list_time", columnList = "user_id, parent_id, deleted, upload_time, id"),
+        // 回收站：按删除批次恢复/列出，后台按删除时间清理过期条目
+        @Index(name = "idx_files_trash", columnList = "user_id, trash_root_id"),
+        @Index(name = "idx_files_purge", columnList = "deleted_at"),
+        // 搜索索引启动补齐：按修改时间找出上次提交之后新增或改名的记录
+        @Index(name = "idx_files_updated", columnList = "updated_at, id")
+})
 @Data
 public class MoranFile {
     @Id
@@ -24,30 +40,52 @@ public class MoranFile {
     @Column(nullable = false)
     private String name;
 
-    @Column(nullable = false, unique = true)
-    private String path;  // UUID.ext
+    @Column(nullable = false)
+    private String path;  // Logical path, e.g. /docs/a.txt; folders end with /
 
     private Long size;  // Bytes, null for folder
 
     @Column(name = "mime_type")
     private String mimeType;
 
+    @Column(length = 64)
+    private String sha256;  // Blob key (hex content digest), null for folder
+
     @Column(name = "upload_time")
     private LocalDateTime uploadTime = LocalDateTime.now();
 
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "user_id")
-    private User user;
+    @JsonIgnore
+    private User user;  // Only the id is read (ownership checks); lazy proxy avoids loading the user row
 
     @Column(name = "parent_id")
     private Long parentId;  // Self-ref for folders, null for root
 
+    @Column(nullable = false, length = 512)
+    private String ancestors = "/";  // Materialized ancestor ids from root, e.g. /1/5/ ; "/" at root
+
     @Column
     private Boolean isFolder = false;  // True for folders
 
     @Column(nullable = false, columnDefinition = "boolean default false")
     private Boolean deleted = false;
 
+    @Column(name = "trash_root_id")
+    private Long trashRootId;  // In the recycle bin: id of the item the user deleted (itself for that row); null otherwise
+
+    @Column(name = "deleted_at")
+    private LocalDateTime deletedAt;  // When moved to the recycle bin
+
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;  // Last insert/update through the entity; search index catch-up watermark
+
     @Transient
     private Boolean lost = false;  // Transient flag for API response: true if !exists on disk
+
+    @PrePersist
+    @PreUpdate
+    void touch() {
+        updatedAt = LocalDateTime.now();
+    }
 }
\ No newline at end of file
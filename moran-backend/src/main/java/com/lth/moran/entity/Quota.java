@@ -8,7 +8,7 @@ import lombok.Data;
 @Data
 public class Quota {
     @Id
-    private Long id = 1L;  // Single row
+    private Long id;  // Same as the owning user's id
 
     @Column(name = "total_space")
     private Long totalSpace;
@@ -0,0 +1,86 @@
+package com.lth.moran.filter;
+
+import com.lth.moran.util.RequestTiming;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.security.SecurityProperties;
+import org.springframework.core.annotation.Order;
+import org.springframework.security.web.util.OnCommittedResponseWrapper;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 统计每个请求在认证、数据库、文件系统上的耗时，通过 Server-Timing 响应头返回（浏览器开发者工具的 Timing 面板可见），
+ * 并按采样率或慢请求阈值输出一行 key=value 日志。
+ * 响应头必须在提交前写入：边生成边输出的响应（ZIP、导出、大列表）只包含开始输出之前的耗时。
+ */
+@Component
+@Order(SecurityProperties.DEFAULT_FILTER_ORDER - 2)  // 在 QueryCountFilter 与 Spring Security 之前，total 包含认证
+public class ServerTimingFilter extends OncePerRequestFilter {
+
+    private static final Logger logger = LoggerFactory.getLogger(ServerTimingFilter.class);
+
+    private static final String SERVER_TIMING = "Server-Timing";
+
+    @Value("${timing.server-timing:true}")
+    private boolean headerEnabled;
+
+    @Value("${timing.log-sample-rate:0}")
+    private double logSampleRate;
+
+    @Value("${timing.log-slow-ms:-1}")
+    private long logSlowMs;
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        if (!headerEnabled && logSampleRate <= 0 && logSlowMs < 0) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+        RequestTiming timing = RequestTiming.start();
+        try {
+            filterChain.doFilter(request, headerEnabled ? new TimingResponseWrapper(response, timing) : response);
+        } finally {
+            RequestTiming.end();
+            // 未经过输出流提交的响应（如 sendfile 下载、空响应）在这里补上完整耗时
+            if (headerEnabled && !response.isCommitted()) {
+                response.setHeader(SERVER_TIMING, timing.toHeader());
+            }
+            log(request, response, timing);
+        }
+    }
+
+    private void log(HttpServletRequest request, HttpServletResponse response, RequestTiming timing) {
+        boolean slow = logSlowMs >= 0 && timing.totalNanos() >= TimeUnit.MILLISECONDS.toNanos(logSlowMs);
+        boolean sampled = logSampleRate > 0 && ThreadLocalRandom.current().nextDouble() < logSampleRate;
+        if (slow || sampled) {
+            logger.info("request_timing method={} uri={} status={} slow={} {}", request.getMethod(),
+                    request.getRequestURI(), response.getStatus(), slow, timing.toLogFields());
+        }
+    }
+
+    /** 在响应即将提交（首次刷新或写满缓冲区）时写入 Server-Timing */
+    private static class TimingResponseWrapper extends OnCommittedResponseWrapper {
+        private final RequestTiming timing;
+
+        TimingResponseWrapper(HttpServletResponse response, RequestTiming timing) {
+            super(response);
+            this.timing = timing;
+        }
+
+        @Override
+        protected void onResponseCommitted() {
+            setHeader(SERVER_TIMING, timing.toHeader());
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.lth.moran.repository;
+
+import com.lth.moran.entity.Blob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface BlobRepository extends JpaRepository<Blob, String> {
+    @Modifying
+    @Query("UPDATE Blob b SET b.refCount = b.refCount + :delta WHERE b.hash = :hash")
+    int adjustRefCount(@Param("hash") String hash, @Param("delta") long delta);
+
+    @Query("SELECT b.hash FROM Blob b")
+    List<String> findAllHashes();
+}
@@ -1,22 +1,171 @@
 package com.lth.moran.repository;
 
+import com.lth.moran.dto.FileItem;
 import com.lth.moran.entity.MoranFile;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
 @Repository
-public interface MoranFileRepository extends JpaRepository<MoranFile, Long> {
-    List<MoranFile> findByUserIdAndParentIdAndDeletedIsFalseOrderByNameAsc(Long userId, Long parentId);
+public interface MoranFileRepository extends JpaRepository<MoranFile, Long>, MoranFileRepositoryCustom {
+    String ITEM = "new com.lth.moran.dto.FileItem(f.id, f.name, f.path, f.size, f.mimeType, f.sha256, f.uploadTime, f.parentId, f.isFolder)";
 
-    @Query("SELECT f FROM MoranFile f WHERE f.user.id = :userId AND f.parentId IS NULL AND f.deleted = false ORDER BY f.name ASC")
-    List<MoranFile> findRootFilesByUserId(@Param("userId") Long userId);
+    @Query("SELECT " + ITEM + " FROM MoranFile f WHERE f.user.id = :userId AND f.parentId = :parentId AND f.deleted = false ORDER BY f.name ASC")
+    List<FileItem> findChildItems(@Param("userId") Long userId, @Param("parentId") Long parentId);
+
+    @Query("SELECT " + ITEM + " FROM MoranFile f WHERE f.user.id = :userId AND f.parentId IS NULL AND f.deleted = false ORDER BY f.name ASC")
+    List<FileItem> findRootItems(@Param("userId") Long userId);
+
+    @Query("SELECT " + ITEM + " FROM MoranFile f WHERE f.user.id = :userId AND f.id IN :ids AND f.deleted = false")
+    List<FileItem> findItemsByIds(@Param("userId") Long userId, @Param("ids") Collection<Long> ids);
+
+    // Exports page through the listing with keyset queries in short transactions, so no connection is held
+    // while the client reads; folder pages use findPage, recursive pages use findSubtreePage.
+    int EXPORT_PAGE_SIZE = 1000;
+
+    /**
+     * Next page of the whole subtree below ancestorsPrefix, grouped by folder via the (user_id, ancestors) index.
+     * Each row is [FileItem, ancestors]; pass the last row's ancestors and id to fetch the following page
+     * ("" and 0 for the first).
+     */
+    @Query("SELECT " + ITEM + ", f.ancestors FROM MoranFile f WHERE f.user.id = :userId AND f.ancestors LIKE CONCAT(:ancestorsPrefix, '%') AND f.deleted = false " +
+            "AND (f.ancestors > :afterAncestors OR (f.ancestors = :afterAncestors AND f.id > :afterId)) ORDER BY f.ancestors ASC, f.id ASC")
+    List<Object[]> findSubtreePage(@Param("userId") Long userId,
+                                   @Param("ancestorsPrefix") String ancestorsPrefix,
+                                   @Param("afterAncestors") String afterAncestors,
+                                   @Param("afterId") Long afterId,
+                                   Pageable pageable);
+
+    // Names in use inside one folder, loaded once per folder by NameIndex
+    @Query("SELECT f.path FROM MoranFile f WHERE f.user.id = :userId AND f.parentId = :parentId AND f.deleted = false")
+    List<String> findChildPaths(@Param("userId") Long userId, @Param("parentId") Long parentId);
+
+    @Query("SELECT f.path FROM MoranFile f WHERE f.user.id = :userId AND f.parentId IS NULL AND f.deleted = false")
+    List<String> findRootPaths(@Param("userId") Long userId);
+
+    @Query("SELECT f.ancestors FROM MoranFile f WHERE f.id = :id AND f.user.id = :userId AND f.deleted = false")
+    Optional<String> findAncestors(@Param("userId") Long userId, @Param("id") Long id);
 
     List<MoranFile> findByParentIdAndIsFolderFalseAndDeletedIsFalseOrderByUploadTimeDesc(Long parentId);  // Files only
 
+    List<MoranFile> findByUserIdAndAncestorsStartingWithAndDeletedIsFalse(Long userId, String ancestorsPrefix);  // Whole subtree
+
     Optional<MoranFile> findByUserIdAndParentIdAndNameAndDeletedIsFalse(Long userId, Long parentId, String name);
-}
\ No newline at end of file
+
+    boolean existsByUserIdAndPathAndDeletedIsFalse(Long userId, String path);
+
+    // Instant upload: whether the user already holds this content (recycle bin included)
+    boolean existsByUserIdAndSha256(Long userId, String sha256);
+
+    // Items in the recycle bin keep counting against the quota until they are purged
+    @Query("SELECT COALESCE(SUM(f.size), 0) FROM MoranFile f WHERE f.user.id = :userId AND (f.deleted = false OR f.trashRootId IS NOT NULL) AND f.isFolder = false")
+    long sumSizeByUserId(@Param("userId") Long userId);
+
+    /**
+     * Rename/move a whole subtree in one statement: swap the old path prefix for newPath and the
+     * old ancestors prefix for newAncestorsPrefix on every row below the moved folder.
+     * The prefix length is computed in SQL: HQL LENGTH (CHAR_LENGTH on MySQL) counts characters like SUBSTRING,
+     * whereas Java String.length() counts UTF-16 units and is off for supplementary characters such as emoji.
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE MoranFile f SET f.path = CONCAT(:newPath, SUBSTRING(f.path, LENGTH(:oldPath) + 1)), " +
+            "f.ancestors = CONCAT(:newAncestorsPrefix, SUBSTRING(f.ancestors, LENGTH(:oldAncestorsPrefix) + 1)) " +
+            "WHERE f.user.id = :userId AND f.ancestors LIKE CONCAT(:oldAncestorsPrefix, '%')")
+    int relocateSubtree(@Param("userId") Long userId,
+                        @Param("oldAncestorsPrefix") String oldAncestorsPrefix,
+                        @Param("oldPath") String oldPath,
+                        @Param("newPath") String newPath,
+                        @Param("newAncestorsPrefix") String newAncestorsPrefix);
+
+    /**
+     * Move every live row below a folder into the recycle bin as part of the deletion rooted at rootId.
+     * Rows that were already in the bin keep their own trash root, so they are restored separately.
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE MoranFile f SET f.deleted = true, f.trashRootId = :rootId, f.deletedAt = :deletedAt " +
+            "WHERE f.user.id = :userId AND f.ancestors LIKE CONCAT(:ancestorsPrefix, '%') AND f.deleted = false")
+    int trashSubtree(@Param("userId") Long userId,
+                     @Param("ancestorsPrefix") String ancestorsPrefix,
+                     @Param("rootId") Long rootId,
+                     @Param("deletedAt") LocalDateTime deletedAt);
+
+    /** Batch delete: each selected row becomes its own trash root; folder subtrees follow via trashSubtree */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE MoranFile f SET f.deleted = true, f.trashRootId = f.id, f.deletedAt = :deletedAt " +
+            "WHERE f.user.id = :userId AND f.id IN :ids AND f.deleted = false")
+    int trashItems(@Param("userId") Long userId,
+                   @Param("ids") Collection<Long> ids,
+                   @Param("deletedAt") LocalDateTime deletedAt);
+
+    /** Bring back every row deleted together with rootId */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE MoranFile f SET f.deleted = false, f.trashRootId = NULL, f.deletedAt = NULL " +
+            "WHERE f.user.id = :userId AND f.trashRootId = :rootId")
+    int restoreTrash(@Param("userId") Long userId, @Param("rootId") Long rootId);
+
+    /** Back-date a deletion so the purge worker picks it up on its next run */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE MoranFile f SET f.deletedAt = :deletedAt WHERE f.user.id = :userId AND f.trashRootId = :rootId")
+    int expireTrash(@Param("userId") Long userId, @Param("rootId") Long rootId, @Param("deletedAt") LocalDateTime deletedAt);
+
+    /** Top-level entries of the recycle bin that are still within the retention window, newest first */
+    @Query("SELECT new com.lth.moran.dto.FileItem(f.id, f.name, f.path, f.size, f.mimeType, f.sha256, f.uploadTime, f.parentId, f.isFolder, f.deletedAt) " +
+            "FROM MoranFile f WHERE f.user.id = :userId AND f.trashRootId = f.id AND f.deletedAt >= :cutoff ORDER BY f.deletedAt DESC, f.id DESC")
+    List<FileItem> findTrashItems(@Param("userId") Long userId, @Param("cutoff") LocalDateTime cutoff);
+
+    /** Next batch of recycle-bin rows whose retention has expired (idx_files_purge) */
+    List<MoranFile> findByTrashRootIdIsNotNullAndDeletedAtBefore(LocalDateTime cutoff, Pageable pageable);
+
+    // Folder copy: folders of the subtree (parents before children), files stored before content addressing,
+    // per-blob reference counts and total size
+    @Query("SELECT f FROM MoranFile f WHERE f.user.id = :userId AND f.ancestors LIKE CONCAT(:ancestorsPrefix, '%') AND f.isFolder = true AND f.deleted = false ORDER BY f.ancestors ASC, f.id ASC")
+    List<MoranFile> findSubtreeFolders(@Param("userId") Long userId, @Param("ancestorsPrefix") String ancestorsPrefix);
+
+    @Query("SELECT f FROM MoranFile f WHERE f.user.id = :userId AND f.ancestors LIKE CONCAT(:ancestorsPrefix, '%') AND f.isFolder = false AND f.sha256 IS NULL AND f.deleted = false")
+    List<MoranFile> findSubtreeLegacyFiles(@Param("userId") Long userId, @Param("ancestorsPrefix") String ancestorsPrefix);
+
+    @Query("SELECT f.sha256, COUNT(f) FROM MoranFile f WHERE f.user.id = :userId AND f.ancestors LIKE CONCAT(:ancestorsPrefix, '%') AND f.isFolder = false AND f.sha256 IS NOT NULL AND f.deleted = false GROUP BY f.sha256")
+    List<Object[]> countSubtreeBlobs(@Param("userId") Long userId, @Param("ancestorsPrefix") String ancestorsPrefix);
+
+    @Query("SELECT COALESCE(SUM(f.size), 0) FROM MoranFile f WHERE f.user.id = :userId AND f.ancestors LIKE CONCAT(:ancestorsPrefix, '%') AND f.isFolder = false AND f.deleted = false")
+    long sumSubtreeSize(@Param("userId") Long userId, @Param("ancestorsPrefix") String ancestorsPrefix);
+
+    /**
+     * Copy every content-addressed file directly inside oldFolderId into newFolderId with one INSERT ... SELECT,
+     * swapping the old folder path prefix for newFolderPath. The prefix length is computed in SQL so it counts
+     * characters the same way SUBSTRING does.
+     */
+    @Modifying(flushAutomatically = true)
+    @Query("INSERT INTO MoranFile (name, path, size, mimeType, sha256, uploadTime, updatedAt, user, parentId, ancestors, isFolder, deleted) " +
+            "SELECT f.name, CONCAT(:newFolderPath, SUBSTRING(f.path, LENGTH(:oldFolderPath) + 1)), f.size, f.mimeType, f.sha256, " +
+            ":uploadTime, :uploadTime, f.user, :newFolderId, :newAncestors, false, false " +
+            "FROM MoranFile f WHERE f.user.id = :userId AND f.parentId = :oldFolderId AND f.isFolder = false " +
+            "AND f.sha256 IS NOT NULL AND f.deleted = false")
+    int copyFolderFiles(@Param("userId") Long userId,
+                        @Param("oldFolderId") Long oldFolderId,
+                        @Param("oldFolderPath") String oldFolderPath,
+                        @Param("newFolderId") Long newFolderId,
+                        @Param("newFolderPath") String newFolderPath,
+                        @Param("newAncestors") String newAncestors,
+                        @Param("uploadTime") LocalDateTime uploadTime);
+
+    // Search index full build, in id order
+    List<MoranFile> findByIdGreaterThanOrderByIdAsc(Long afterId, Pageable pageable);
+
+    // Search index catch-up: rows inserted or updated since the last index commit's watermark, keyset on (updatedAt, id)
+    @Query("SELECT f FROM MoranFile f WHERE f.updatedAt >= :afterTime AND (f.updatedAt > :afterTime OR f.id > :afterId) " +
+            "ORDER BY f.updatedAt ASC, f.id ASC")
+    List<MoranFile> findUpdatedSince(@Param("afterTime") LocalDateTime afterTime, @Param("afterId") Long afterId,
+                                     Pageable pageable);
+
+    @Query("SELECT MAX(f.id) FROM MoranFile f")
+    Optional<Long> findMaxId();
+}
@@ -0,0 +1,32 @@
+package com.lth.moran.repository;
+
+import com.lth.moran.dto.FileItem;
+
+import java.util.List;
+
+/**
+ * Keyset (seek) pagination over one folder, backed by the (user_id, parent_id, deleted, key) indexes.
+ */
+public interface MoranFileRepositoryCustom {
+
+    enum SortKey {
+        NAME("name"), SIZE("size"), TIME("uploadTime");
+
+        private final String field;
+
+        SortKey(String field) {
+            this.field = field;
+        }
+
+        public String getField() {
+            return field;
+        }
+    }
+
+    /**
+     * Next page of non-deleted children of parentId (null = root), ordered by sort key then id.
+     * afterId == null means first page; afterKey is the sort value of the last row of the previous page.
+     */
+    List<FileItem> findPage(Long userId, Long parentId, SortKey sort, boolean descending,
+                             Object afterKey, Long afterId, int limit);
+}
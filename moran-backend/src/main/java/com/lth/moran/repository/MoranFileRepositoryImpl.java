@@ -0,0 +1,52 @@
+package com.lth.moran.repository;
+
+import com.lth.moran.dto.FileItem;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.TypedQuery;
+
+import java.util.List;
+
+public class MoranFileRepositoryImpl implements MoranFileRepositoryCustom {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public List<FileItem> findPage(Long userId, Long parentId, SortKey sort, boolean descending,
+                                    Object afterKey, Long afterId, int limit) {
+        String key = "f." + sort.getField();
+        String cmp = descending ? "<" : ">";
+        String dir = descending ? "DESC" : "ASC";
+
+        StringBuilder jpql = new StringBuilder("SELECT " + MoranFileRepository.ITEM + " FROM MoranFile f WHERE f.user.id = :userId AND f.deleted = false AND ")
+                .append(parentId == null ? "f.parentId IS NULL" : "f.parentId = :parentId");
+        if (afterId != null) {
+            // MySQL 中 NULL（如文件夹的 size）升序排最前、降序排最后
+            if (afterKey == null) {
+                jpql.append(descending
+                        ? " AND " + key + " IS NULL AND f.id < :afterId"
+                        : " AND ((" + key + " IS NULL AND f.id > :afterId) OR " + key + " IS NOT NULL)");
+            } else {
+                jpql.append(" AND (").append(key).append(' ').append(cmp).append(" :afterKey OR (")
+                        .append(key).append(" = :afterKey AND f.id ").append(cmp).append(" :afterId)")
+                        .append(descending ? " OR " + key + " IS NULL)" : ")");
+            }
+        }
+        jpql.append(" ORDER BY ").append(key).append(' ').append(dir).append(", f.id ").append(dir);
+
+        TypedQuery<FileItem> query = entityManager.createQuery(jpql.toString(), FileItem.class)
+                .setParameter("userId", userId)
+                .setMaxResults(limit);
+        if (parentId != null) {
+            query.setParameter("parentId", parentId);
+        }
+        if (afterId != null) {
+            query.setParameter("afterId", afterId);
+            if (afterKey != null) {
+                query.setParameter("afterKey", afterKey);
+            }
+        }
+        return query.getResultList();
+    }
+}
@@ -2,8 +2,18 @@ package com.lth.moran.repository;
 
 import com.lth.moran.entity.Quota;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 @Repository
 public interface QuotaRepository extends JpaRepository<Quota, Long> {
+    @Modifying
+    @Query("UPDATE Quota q SET q.usedSpace = q.usedSpace + :delta WHERE q.id = :userId")
+    int addUsedSpace(@Param("userId") Long userId, @Param("delta") long delta);
+
+    @Modifying
+    @Query("UPDATE Quota q SET q.usedSpace = :usedSpace WHERE q.id = :userId")
+    int setUsedSpace(@Param("userId") Long userId, @Param("usedSpace") long usedSpace);
 }
\ No newline at end of file
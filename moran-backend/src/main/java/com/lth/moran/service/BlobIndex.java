@@ -0,0 +1,199 @@
+package com.lth.moran.service;
+
+import com.lth.moran.repository.BlobRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Blob 磁盘存在性索引：记录数据库中有记录但磁盘上缺失的 hash，列表与访问时直接查询，
+ * 不再对每个文件做 Files.exists。由 WatchService 实时维护，并定期与 blobs 表全量核对，
+ * 以覆盖网络存储等收不到文件事件的情况。
+ */
+@Component
+public class BlobIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(BlobIndex.class);
+
+    private static final Pattern HASH = Pattern.compile("[0-9a-f]{64}");
+
+    private final BlobRepository blobRepository;
+
+    /** 磁盘上缺失的 Blob hash，正常情况下为空 */
+    private final Set<String> missing = ConcurrentHashMap.newKeySet();
+
+    /** 首次核对完成前索引不可信，调用方应回退到直接检查磁盘 */
+    private volatile boolean ready = false;
+
+    private WatchService watchService;
+    private Thread watcher;
+
+    @Value("${storage.path}")
+    private String storagePath;
+
+    public BlobIndex(BlobRepository blobRepository) {
+        this.blobRepository = blobRepository;
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public boolean isMissing(String hash) {
+        return missing.contains(hash);
+    }
+
+    /** Blob 已写入磁盘 */
+    public void markPresent(String hash) {
+        missing.remove(hash);
+    }
+
+    /** Blob 已被回收，不再被引用，无需记为缺失 */
+    public void forget(String hash) {
+        missing.remove(hash);
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        Path root = getRoot();
+        Files.createDirectories(root);
+        watchService = FileSystems.getDefault().newWatchService();
+        root.register(watchService, StandardWatchEventKinds.ENTRY_CREATE);
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(root, Files::isDirectory)) {
+            for (Path dir : dirs) {
+                watch(dir);
+            }
+        }
+        watcher = new Thread(this::watchLoop, "blob-index-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    @PreDestroy
+    public void stop() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+        }
+    }
+
+    /**
+     * 全量核对：扫描 .blobs 目录（每个前缀目录一次 readdir，不逐个 stat），与 blobs 表比较。
+     */
+    @Scheduled(fixedDelayString = "${storage.reconcile-interval-minutes:10}", timeUnit = TimeUnit.MINUTES)
+    public void reconcile() {
+        long start = System.currentTimeMillis();
+        Set<String> onDisk = new HashSet<>();
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(getRoot(), Files::isDirectory)) {
+            for (Path dir : dirs) {
+                try (DirectoryStream<Path> blobs = Files.newDirectoryStream(dir)) {
+                    for (Path blob : blobs) {
+                        onDisk.add(blob.getFileName().toString());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Failed to scan blob directory: {}", e.getMessage());
+            return;
+        }
+
+        Set<String> nowMissing = new HashSet<>();
+        for (String hash : blobRepository.findAllHashes()) {
+            // 扫描之后才入库的 Blob 不在 onDisk 中，再单独确认一次（缺失集合通常很小）
+            if (!onDisk.contains(hash) && !Files.exists(getRoot().resolve(hash.substring(0, 2)).resolve(hash))) {
+                nowMissing.add(hash);
+            }
+        }
+        missing.retainAll(nowMissing);
+        missing.addAll(nowMissing);
+        ready = true;
+        logger.info("Blob index reconciled: {} on disk, {} missing ({} ms)",
+                onDisk.size(), nowMissing.size(), System.currentTimeMillis() - start);
+    }
+
+    /** 启动时的首次核对由 @Scheduled 立即触发 */
+    private void watchLoop() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                Path dir = (Path) key.watchable();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        logger.warn("Blob watcher overflowed, reconciling");
+                        reconcile();
+                        continue;
+                    }
+                    Path child = dir.resolve((Path) event.context());
+                    if (dir.equals(getRoot())) {
+                        if (Files.isDirectory(child)) {
+                            watch(child);
+                            rescan(child);  // 注册前已写入的文件没有事件
+                        }
+                        continue;
+                    }
+                    String hash = child.getFileName().toString();
+                    if (!HASH.matcher(hash).matches()) {
+                        continue;
+                    }
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                        missing.add(hash);  // 被主动回收的 Blob 会在下次核对时移除
+                        logger.debug("Blob {} removed from disk", hash);
+                    } else {
+                        missing.remove(hash);
+                    }
+                }
+                if (!key.reset() && !dir.equals(getRoot())) {
+                    logger.warn("Blob directory {} is no longer watched", dir);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            logger.debug("Blob watcher stopped");
+        } catch (Exception e) {
+            logger.error("Blob watcher failed, relying on periodic reconciliation: {}", e.getMessage());
+        }
+    }
+
+    private void watch(Path dir) {
+        try {
+            dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (IOException e) {
+            logger.error("Failed to watch blob directory {}: {}", dir, e.getMessage());
+        }
+    }
+
+    private void rescan(Path dir) {
+        try (DirectoryStream<Path> blobs = Files.newDirectoryStream(dir)) {
+            for (Path blob : blobs) {
+                missing.remove(blob.getFileName().toString());
+            }
+        } catch (IOException e) {
+            logger.error("Failed to scan blob directory {}: {}", dir, e.getMessage());
+        }
+    }
+
+    private Path getRoot() {
+        return Paths.get(storagePath, BlobStore.BLOB_DIR);
+    }
+}
@@ -0,0 +1,320 @@
+package com.lth.moran.service;
+
+import com.lth.moran.entity.Blob;
+import com.lth.moran.repository.BlobRepository;
+import com.lth.moran.util.StorageMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 内容寻址 Blob 存储：文件内容按 SHA-256 存放在 {storage.path}/.blobs/ab/abcdef... 下，
+ * 由 MoranFile 通过 sha256 引用并计数。目录、文件名只存在于数据库中，重命名/移动不再触碰磁盘，
+ * 相同内容只存一份。
+ */
+@Service
+public class BlobStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(BlobStore.class);
+
+    /** 秒传校验用的头部摘要覆盖的字节数 */
+    public static final int HEAD_SIZE = 256 * 1024;
+
+    static final String BLOB_DIR = ".blobs";
+    private static final int LOCK_STRIPES = 64;
+
+    private final BlobRepository blobRepository;
+    private final BlobIndex blobIndex;
+    private final ApplicationEventPublisher eventPublisher;
+    private final TransactionTemplate requiresNew;
+    private final TransactionTemplate required;
+    private final StorageMetrics metrics;
+
+    /**
+     * 同一 hash 的入库与回收必须串行，否则可能删掉刚被引用的文件。
+     * 临界区内有数据库与磁盘 I/O，用 ReentrantLock 而非 synchronized，避免虚拟线程钉住载体线程。
+     */
+    private final ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+
+    @Value("${storage.path}")
+    private String storagePath;
+
+    public BlobStore(BlobRepository blobRepository, BlobIndex blobIndex, ApplicationEventPublisher eventPublisher,
+                     PlatformTransactionManager transactionManager, StorageMetrics metrics) {
+        this.blobRepository = blobRepository;
+        this.blobIndex = blobIndex;
+        this.eventPublisher = eventPublisher;
+        this.requiresNew = new TransactionTemplate(transactionManager);
+        this.requiresNew.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.required = new TransactionTemplate(transactionManager);
+        this.metrics = metrics;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    public Path resolve(String hash) {
+        return Paths.get(storagePath, BLOB_DIR, hash.substring(0, 2), hash);
+    }
+
+    public Optional<Blob> find(String hash) {
+        return blobRepository.findById(hash);
+    }
+
+    /**
+     * 将临时文件按内容入库并增加一次引用。内容已存在时直接丢弃临时文件。
+     * 在独立事务中提交，保证并发上传同一内容时只插入一行；之后移动文件失败时撤销这次引用再抛出。
+     */
+    public void ingest(Path source, String hash, long size) throws IOException {
+        Path target = resolve(hash);
+        String headHash = metrics.io("head-hash", () -> headSha256(source));
+        ReentrantLock lock = lockFor(hash);
+        lock.lock();
+        try {
+            Boolean existed = requiresNew.execute(status -> {
+                if (blobRepository.adjustRefCount(hash, 1) > 0) {
+                    return true;
+                }
+                Blob blob = new Blob();
+                blob.setHash(hash);
+                blob.setSize(size);
+                blob.setHeadHash(headHash);
+                blob.setRefCount(1L);
+                blobRepository.save(blob);
+                return false;
+            });
+            if (metrics.exists(target)) {
+                Files.deleteIfExists(source);
+                logger.info("Deduplicated content {} ({} bytes)", hash, size);
+                return;
+            }
+            if (Boolean.TRUE.equals(existed)) {
+                logger.warn("Blob {} was missing on disk, restoring from upload", hash);
+            }
+            try {
+                metrics.io("move", () -> {
+                    Files.createDirectories(target.getParent());
+                    try {
+                        return Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+                    } catch (AtomicMoveNotSupportedException e) {
+                        return Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+                    }
+                });
+            } catch (IOException e) {
+                // 引用已提交而内容没有到位：撤销本次引用，新插入的行随即删除，不留下指向空文件的 Blob
+                requiresNew.executeWithoutResult(status -> blobRepository.adjustRefCount(hash, -1));
+                purgeIfUnreferenced(hash);
+                throw e;
+            }
+            blobIndex.markPresent(hash);
+            logger.debug("Stored new blob {} ({} bytes)", hash, size);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** 为已存在的内容增加一次引用（如秒传、复制） */
+    public void retain(String hash) {
+        required.executeWithoutResult(status -> {
+            if (blobRepository.adjustRefCount(hash, 1) == 0) {
+                throw new RuntimeException("Blob not found: " + hash);
+            }
+        });
+    }
+
+    /** 一次增加 count 次引用（如复制文件夹时子树中引用同一内容的多个文件） */
+    public void retain(String hash, long count) {
+        required.executeWithoutResult(status -> {
+            if (blobRepository.adjustRefCount(hash, count) == 0) {
+                throw new RuntimeException("Blob not found: " + hash);
+            }
+        });
+    }
+
+    /**
+     * 将存储目录中内容寻址之前的旧文件按内容入库并增加一次引用，返回 hash，源文件保持不变。
+     * 旧文件写入后不再修改，优先在临时目录建立硬链接，不复制数据；不支持硬链接（如跨文件系统）时
+     * 用 FileChannel.transferTo 由内核复制，不经过用户态缓冲区。
+     */
+    public String importFile(Path source) throws IOException {
+        Path temp = stage(source);
+        try {
+            String hash = metrics.io("hash", () -> sha256(temp));
+            ingest(temp, hash, Files.size(temp));
+            return hash;
+        } finally {
+            Files.deleteIfExists(temp);  // 成功时已被移走或去重删除
+        }
+    }
+
+    /**
+     * 在临时目录中建立 source 的一个副本，供 {@link #ingest} 移走而源文件保持不变：优先建立硬链接，
+     * 不支持时用 FileChannel.transferTo 复制。调用方负责在副本未被移走时删除它。
+     */
+    public Path stage(Path source) throws IOException {
+        Path tempDir = Paths.get(storagePath, FileService.TEMP_DIR);
+        Files.createDirectories(tempDir);
+        Path temp = tempDir.resolve("copy-" + UUID.randomUUID() + ".tmp");
+        return metrics.io("copy", () -> {
+            try {
+                return Files.createLink(temp, source);
+            } catch (UnsupportedOperationException | IOException e) {
+                Files.deleteIfExists(temp);
+                return transferCopy(source, temp);
+            }
+        });
+    }
+
+    /**
+     * 当前事务回滚时撤销在独立事务中已经增加的引用（如 {@link #ingest}、{@link #importFile} 入库的内容），
+     * 引用归零的 Blob 随即删除。
+     *
+     * @return 是否已登记；没有进行中的事务时返回 false，由调用方在失败时自行 {@link #release}
+     */
+    public boolean releaseOnRollback(Collection<String> hashes) {
+        if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+            return false;
+        }
+        if (hashes.isEmpty()) {
+            return true;
+        }
+        List<String> pending = List.copyOf(hashes);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_COMMITTED) {
+                    return;
+                }
+                for (String hash : pending) {
+                    // 原事务已结束，须在新事务中执行
+                    requiresNew.executeWithoutResult(s -> blobRepository.adjustRefCount(hash, -1));
+                    purgeIfUnreferenced(hash);
+                }
+            }
+        });
+        return true;
+    }
+
+    /** 减少一次引用；引用归零的 Blob 在事务提交后删除 */
+    public void release(String hash) {
+        required.executeWithoutResult(status -> blobRepository.adjustRefCount(hash, -1));
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    purgeIfUnreferenced(hash);
+                }
+            });
+        } else {
+            purgeIfUnreferenced(hash);
+        }
+    }
+
+    private void purgeIfUnreferenced(String hash) {
+        ReentrantLock lock = lockFor(hash);
+        lock.lock();
+        try {
+            Boolean purged = requiresNew.execute(status -> blobRepository.findById(hash)
+                    .filter(blob -> blob.getRefCount() <= 0)
+                    .map(blob -> {
+                        blobRepository.delete(blob);
+                        return true;
+                    })
+                    .orElse(false));
+            if (Boolean.TRUE.equals(purged)) {
+                try {
+                    Files.deleteIfExists(resolve(hash));
+                    blobIndex.forget(hash);
+                    eventPublisher.publishEvent(new BlobPurgedEvent(hash));  // 清理缩略图等派生文件
+                    logger.info("Purged unreferenced blob {}", hash);
+                } catch (IOException e) {
+                    logger.error("Failed to delete blob {}: {}", hash, e.getMessage());
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static Path transferCopy(Path source, Path target) throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+        }
+        return target;
+    }
+
+    /** 计算文件的 SHA-256（十六进制） */
+    public static String sha256(Path path) throws IOException {
+        MessageDigest digest = newSha256();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            while (channel.read(buffer) > 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /** 计算文件前 HEAD_SIZE 字节的 SHA-256，文件更小时即整个文件 */
+    public static String headSha256(Path path) throws IOException {
+        MessageDigest digest = newSha256();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(HEAD_SIZE);
+            int read;
+            do {
+                read = channel.read(buffer);
+            } while (read > 0 && buffer.hasRemaining());
+            buffer.flip();
+            digest.update(buffer);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    public static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Blob 已从磁盘删除 */
+    public record BlobPurgedEvent(String hash) {
+    }
+
+    private ReentrantLock lockFor(String hash) {
+        return locks[Math.floorMod(hash.hashCode(), LOCK_STRIPES)];
+    }
+}
@@ -1,32 +1,60 @@
 package com.lth.moran.service;
 
+import com.lth.moran.entity.Blob;
 import com.lth.moran.entity.MoranFile;
 import com.lth.moran.entity.Quota;
 import com.lth.moran.entity.User;
+import com.lth.moran.dto.BatchResult;
+import com.lth.moran.dto.FileItem;
+import com.lth.moran.dto.FilePage;
 import com.lth.moran.repository.MoranFileRepository;
-import com.lth.moran.repository.QuotaRepository;
+import com.lth.moran.repository.MoranFileRepositoryCustom.SortKey;
+import com.lth.moran.util.StorageMetrics;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.MinimalPrettyPrinter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
-import java.util.ArrayDeque;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
-import java.util.Queue;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -35,15 +63,51 @@ public class FileService {
 
     private static final Logger logger = LoggerFactory.getLogger(FileService.class);
 
+    /** 上传临时目录，位于存储根目录下以保证重命名是同一文件系统内的原子操作 */
+    static final String TEMP_DIR = ".tmp";
+    private static final int MAX_PAGE_SIZE = 200;
+    private static final int MAX_BATCH_SIZE = 1000;
+
     private final MoranFileRepository fileRepository;
-    private final QuotaRepository quotaRepository;
+    private final QuotaService quotaService;
+    private final BlobStore blobStore;
+    private final BlobIndex blobIndex;
+    private final ObjectMapper objectMapper;
+    private final StorageMetrics metrics;
+    private final TrashPurger trashPurger;
+    private final NameIndex nameIndex;
+    private final SearchIndex searchIndex;
+
+    /** 复制文件夹时并行导入旧文件内容（硬链接或内核复制 + 计算摘要），线程数有上限 */
+    private final ExecutorService copyExecutor;
 
     @Value("${storage.path}")
     private String storagePath;
 
-    public FileService(MoranFileRepository fileRepository, QuotaRepository quotaRepository) {
+    public FileService(MoranFileRepository fileRepository, QuotaService quotaService, BlobStore blobStore,
+                       BlobIndex blobIndex, ObjectMapper objectMapper, StorageMetrics metrics,
+                       TrashPurger trashPurger, NameIndex nameIndex, SearchIndex searchIndex,
+                       @Value("${copy.threads:4}") int copyThreads) {
         this.fileRepository = fileRepository;
-        this.quotaRepository = quotaRepository;
+        this.quotaService = quotaService;
+        this.blobStore = blobStore;
+        this.blobIndex = blobIndex;
+        this.objectMapper = objectMapper;
+        this.metrics = metrics;
+        this.trashPurger = trashPurger;
+        this.nameIndex = nameIndex;
+        this.searchIndex = searchIndex;
+        AtomicInteger counter = new AtomicInteger();
+        this.copyExecutor = Executors.newFixedThreadPool(copyThreads, runnable -> {
+            Thread thread = new Thread(runnable, "copy-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        copyExecutor.shutdownNow();
     }
 
     private Long getCurrentUserId() {
@@ -55,29 +119,172 @@ public class FileService {
         }
     }
 
-    public List<MoranFile> listFiles(Long parentId) {
+    public List<FileItem> listFiles(Long parentId) {
         Long userId = getCurrentUserId();
-        logger.info("Listing files for user {} in parent {}", userId, parentId);
+        logger.debug("Listing files for user {} in parent {}", userId, parentId);
         if (parentId == null) {
-            List<MoranFile> files = fileRepository.findRootFilesByUserId(userId);
-            logger.info("Root files count for user {}: {}", userId, files.size());
+            List<FileItem> files = fileRepository.findRootItems(userId);
+            logger.debug("Root files count for user {}: {}", userId, files.size());
             return validateAndMarkLostFiles(files);
         } else {
-            List<MoranFile> files = fileRepository.findByUserIdAndParentIdAndDeletedIsFalseOrderByNameAsc(userId, parentId);
-            logger.info("Sub files count for user {} parent {}: {}", userId, parentId, files.size());
+            List<FileItem> files = fileRepository.findChildItems(userId, parentId);
+            logger.debug("Sub files count for user {} parent {}: {}", userId, parentId, files.size());
             return validateAndMarkLostFiles(files);
         }
     }
 
-    private List<MoranFile> validateAndMarkLostFiles(List<MoranFile> files) {
+    /**
+     * 键集分页：用上一页最后一行的排序键与 ID 定位，不用 OFFSET，任意一页的代价都与第一页相同。
+     *
+     * @param sort   name / size / time
+     * @param order  asc / desc
+     * @param cursor 上一页返回的 nextCursor，首页为 null
+     */
+    public FilePage listFilesPage(Long parentId, int limit, String sort, String order, String cursor) {
+        Long userId = getCurrentUserId();
+        SortKey sortKey = parseSortKey(sort);
+        boolean descending = "desc".equalsIgnoreCase(order);
+        int pageSize = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+
+        Object afterKey = null;
+        Long afterId = null;
+        if (cursor != null && !cursor.isEmpty()) {
+            try {
+                String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split("\\|", 3);
+                if (parts.length != 3 || !parts[0].equals(sortKey.name())) {
+                    throw new IllegalArgumentException("sort mismatch");
+                }
+                afterId = Long.parseLong(parts[1]);
+                afterKey = parts[2].isEmpty() ? null : parseSortValue(sortKey, parts[2].substring(1));
+            } catch (IllegalArgumentException | DateTimeParseException e) {
+                throw new RuntimeException("Invalid cursor");
+            }
+        }
+
+        List<FileItem> rows = new ArrayList<>(fileRepository.findPage(userId, parentId, sortKey, descending,
+                afterKey, afterId, pageSize + 1));  // 多取一行判断是否还有下一页
+        String nextCursor = null;
+        if (rows.size() > pageSize) {
+            rows = new ArrayList<>(rows.subList(0, pageSize));
+            nextCursor = encodeCursor(sortKey, rows.get(pageSize - 1));
+        }
+        logger.debug("Page of {} files for user {} in parent {} (sort {} {})", rows.size(), userId, parentId, sortKey, order);
+        return new FilePage(validateAndMarkLostFiles(rows), nextCursor);
+    }
+
+    /**
+     * 以 JSON Lines（每行一个 FileItem）流式输出文件夹内容。按键集分页读取，每页一次短查询，
+     * 写给客户端期间不占用数据库连接，慢速客户端再多也不会耗尽连接池；内存占用与文件夹大小无关。
+     * 各页不在同一个快照中，导出期间被移动或改名的条目可能缺失或重复。
+     *
+     * @param parentId  文件夹 ID，null 为根目录；调用方应先校验归属
+     * @param recursive 是否包含所有子孙，按所在文件夹分组输出
+     */
+    public void exportListing(Long parentId, boolean recursive, OutputStream outputStream) throws IOException {
+        Long userId = getCurrentUserId();
+        String prefix = !recursive ? null : parentId == null ? "/" : fileRepository.findAncestors(userId, parentId)
+                .map(ancestors -> ancestors + parentId + "/")
+                .orElseThrow(() -> new RuntimeException("File not found: " + parentId));
+
+        long count = 0;
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+            generator.setPrettyPrinter(new MinimalPrettyPrinter("\n"));  // 顶层值之间以换行分隔
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            String afterAncestors = "";
+            FileItem last = null;
+            while (true) {
+                List<FileItem> page;
+                if (recursive) {
+                    List<Object[]> rows = fileRepository.findSubtreePage(userId, prefix, afterAncestors,
+                            last == null ? 0L : last.getId(), PageRequest.of(0, MoranFileRepository.EXPORT_PAGE_SIZE));
+                    page = rows.stream().map(row -> (FileItem) row[0]).toList();
+                    if (!rows.isEmpty()) {
+                        afterAncestors = (String) rows.get(rows.size() - 1)[1];
+                    }
+                } else {
+                    page = fileRepository.findPage(userId, parentId, SortKey.NAME, false,
+                            last == null ? null : last.getName(), last == null ? null : last.getId(),
+                            MoranFileRepository.EXPORT_PAGE_SIZE);
+                }
+                for (FileItem item : page) {
+                    if (isLost(item.getIsFolder(), item.getSha256(), item.getPath())) {
+                        item.setLost(true);
+                    }
+                    generator.writeObject(item);
+                    count++;
+                }
+                if (page.size() < MoranFileRepository.EXPORT_PAGE_SIZE) {
+                    break;
+                }
+                last = page.get(page.size() - 1);
+            }
+            generator.writeRaw('\n');
+        }
+        logger.info("Exported {} entries for user {} in parent {} (recursive: {})", count, userId, parentId, recursive);
+    }
+
+    /**
+     * 按文件名搜索当前用户的文件与文件夹，由 {@link SearchIndex} 定位，结果按名称升序。
+     *
+     * @param mode substring / prefix
+     * @param type file / folder，null 为不限
+     */
+    public List<FileItem> searchFiles(String text, String mode, String extension, String type,
+                                      Long minSize, Long maxSize, LocalDateTime from, LocalDateTime to, int limit) {
+        Long userId = getCurrentUserId();
+        boolean prefix = switch (mode == null ? "substring" : mode.toLowerCase()) {
+            case "substring" -> false;
+            case "prefix" -> true;
+            default -> throw new RuntimeException("Invalid mode: " + mode);
+        };
+        Boolean folder = type == null ? null : switch (type.toLowerCase()) {
+            case "file" -> false;
+            case "folder" -> true;
+            default -> throw new RuntimeException("Invalid type: " + type);
+        };
+        SearchIndex.Criteria criteria = new SearchIndex.Criteria(text, prefix, extension, folder, minSize, maxSize, from, to);
+        List<FileItem> results = searchIndex.search(userId, criteria, Math.max(1, Math.min(limit, MAX_PAGE_SIZE)));
+        logger.debug("Search for user {} ({} {}) returned {} entries", userId, mode, text, results.size());
+        return validateAndMarkLostFiles(results);
+    }
+
+    private static SortKey parseSortKey(String sort) {
+        if (sort == null) {
+            return SortKey.NAME;
+        }
+        return switch (sort.toLowerCase()) {
+            case "name" -> SortKey.NAME;
+            case "size" -> SortKey.SIZE;
+            case "time" -> SortKey.TIME;
+            default -> throw new RuntimeException("Invalid sort: " + sort);
+        };
+    }
+
+    private static Object parseSortValue(SortKey sortKey, String value) {
+        return switch (sortKey) {
+            case NAME -> value;
+            case SIZE -> Long.parseLong(value);
+            case TIME -> LocalDateTime.parse(value);
+        };
+    }
+
+    /** 游标：排序键|ID|v排序值（值为 NULL 时为空），Base64 编码 */
+    private static String encodeCursor(SortKey sortKey, FileItem last) {
+        Object value = switch (sortKey) {
+            case NAME -> last.getName();
+            case SIZE -> last.getSize();
+            case TIME -> last.getUploadTime();
+        };
+        String raw = sortKey.name() + "|" + last.getId() + "|" + (value == null ? "" : "v" + value);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private List<FileItem> validateAndMarkLostFiles(List<FileItem> files) {
         return files.stream()
                 .peek(file -> {
-                    if (!file.getDeleted()) {
-                        Path filePath = Paths.get(storagePath, file.getPath());
-                        if (!Files.exists(filePath)) {
-                            logger.warn("File {} does not exist on disk, marking as lost", file.getId());
-                            file.setLost(true);
-                        }
+                    if (isLost(file.getIsFolder(), file.getSha256(), file.getPath())) {
+                        logger.warn("File {} does not exist on disk, marking as lost", file.getId());
+                        file.setLost(true);
                     }
                 })
                 .collect(Collectors.toList());
@@ -95,8 +302,7 @@ public class FileService {
         if (file.getDeleted()) {
             throw new RuntimeException("File has been deleted");
         }
-        Path filePath = Paths.get(storagePath, file.getPath());
-        if (!Files.exists(filePath)) {
+        if (isLost(file.getIsFolder(), file.getSha256(), file.getPath())) {
             logger.warn("File {} does not exist on disk, soft deleting", id);
             softDelete(id);
             throw new RuntimeException("File not found");
@@ -104,111 +310,207 @@ public class FileService {
         return file;
     }
 
+    /**
+     * 内容是否已从磁盘丢失。Blob 查内存索引，不做 stat；索引未就绪或旧数据（无 hash）时才检查磁盘。
+     */
+    private boolean isLost(Boolean isFolder, String sha256, String path) {
+        if (isFolder) {
+            return false;
+        }
+        if (sha256 != null && blobIndex.isReady()) {
+            return blobIndex.isMissing(sha256);
+        }
+        return !metrics.exists(getContentPath(sha256, path));
+    }
+
     public MoranFile uploadFile(MultipartFile file, Long parentId) throws IOException {
         logger.info("Uploading file: {} (size: {}) to parent {}", file.getOriginalFilename(), file.getSize(), parentId);
-        try {
-            Quota quota = quotaRepository.findById(1L).orElseThrow(() -> new RuntimeException("Quota not found"));
-            if (quota.getUsedSpace() + file.getSize() > quota.getTotalSpace()) {
-                logger.warn("Quota exceeded for upload: {} bytes", file.getSize());
-                throw new RuntimeException("Storage quota exceeded");
-            }
-
-            String fullPath = buildFullPath(parentId, null);
-            String originalName = file.getOriginalFilename();
-            if (originalName == null || originalName.trim().isEmpty()) {
-                throw new RuntimeException("Invalid filename");
-            }
+        try (InputStream input = file.getInputStream()) {
+            return uploadStream(input, file.getOriginalFilename(), file.getSize(), file.getContentType(), null, parentId);
+        }
+    }
 
-            // Generate unique filename to avoid conflicts
-            String finalName = getUniqueFilename(fullPath, originalName);
-            String filePath = fullPath + "/" + finalName;
+    /**
+     * 将已完整写好的临时文件（与存储目录在同一文件系统上）按内容入库，并登记记录、更新配额。
+     * 相同内容只保存一份，文件名与目录结构只记录在数据库中。
+     *
+     * @param sha256 内容摘要，为 null 时现算
+     */
+    @Transactional
+    public MoranFile storeFile(Path source, String originalName, long size, String mimeType, String sha256,
+                               Long parentId) throws IOException {
+        try (QuotaService.Reservation reservation = quotaService.reserve(getCurrentUserId(), size)) {
+            return storeFile(source, originalName, size, mimeType, sha256, parentId, reservation);
+        }
+    }
 
-            Path targetLocation = Paths.get(storagePath, filePath);
-            Path dirPath = targetLocation.getParent();
-            if (!Files.exists(dirPath)) {
-                Files.createDirectories(dirPath);
-                logger.info("Created upload dir: {}", dirPath);
-            }
+    private MoranFile storeFile(Path source, String originalName, long size, String mimeType, String sha256,
+                                Long parentId, QuotaService.Reservation reservation) throws IOException {
+        logger.info("Storing file: {} (size: {}) to parent {}", originalName, size, parentId);
+        MoranFile parent = findParentFolder(parentId);
+        String hash = sha256 != null ? sha256 : metrics.io("hash", () -> BlobStore.sha256(source));
 
-            Files.copy(file.getInputStream(), targetLocation, StandardCopyOption.REPLACE_EXISTING);
-            logger.debug("File saved to: {}", targetLocation);
-
-            MoranFile moranFile = new MoranFile();
-            moranFile.setName(originalName);  // Store original name in DB
-            moranFile.setPath(filePath);  // Path uses final (unique) name
-            moranFile.setSize(file.getSize());
-            moranFile.setMimeType(file.getContentType());
-            moranFile.setUser((User) SecurityContextHolder.getContext().getAuthentication().getPrincipal());
-            moranFile.setParentId(parentId);
-
-            MoranFile saved = fileRepository.save(moranFile);
-            quota.setUsedSpace(quota.getUsedSpace() + file.getSize());
-            quotaRepository.save(quota);
-            logger.info("Upload successful: file ID {}", saved.getId());
+        blobStore.ingest(source, hash, size);
+        // 引用已在独立事务中提交：外层事务回滚时再撤销，在回滚的事务里撤销会随之一起回滚
+        boolean compensated = blobStore.releaseOnRollback(List.of(hash));
+        String filePath = null;
+        try {
+            filePath = resolveUploadPath(parent, originalName);
+            MoranFile saved = saveFileRecord(filePath, originalName, size, mimeType, hash, parent);
+            reservation.commit();
             return saved;
-        } catch (IOException e) {
-            logger.error("IO error during upload: {}", e.getMessage());
-            throw e;
-        } catch (Exception e) {
-            logger.error("Upload failed: {}", e.getMessage());
+        } catch (RuntimeException e) {
+            logger.error("Store failed: {}", e.getMessage());
+            if (!compensated) {
+                // 没有外层事务：直接撤销本次引用；名称索引已把分配的名称当作提交，也要让出
+                blobStore.release(hash);
+                if (filePath != null) {
+                    nameIndex.release(getCurrentUserId(), parent != null ? parent.getId() : null, NameIndex.nameOf(filePath));
+                }
+            }
             throw new RuntimeException("Upload failed: " + e.getMessage(), e);
         }
     }
 
-    private String getUniqueFilename(String fullPath, String originalName) {
-        Path basePath = Paths.get(storagePath, fullPath);
-        String finalName = originalName;
-        int counter = 1;
-        Pattern pattern = Pattern.compile("^(.*) \\((\\d+)\\)([^.]*)\\.([^.]+)$");
-        Matcher matcher = pattern.matcher(originalName);
-
-        String baseName;
-        String extension = "";
-        if (matcher.matches()) {
-            baseName = matcher.group(1);
-            counter = Integer.parseInt(matcher.group(2)) + 1;
-            extension = matcher.group(3) + "." + matcher.group(4);
-        } else {
-            int dotIndex = originalName.lastIndexOf('.');
-            if (dotIndex > 0) {
-                baseName = originalName.substring(0, dotIndex);
-                extension = originalName.substring(dotIndex);
-            } else {
-                baseName = originalName;
-                extension = "";
+    /**
+     * 直接从请求体流式接收文件：写入与存储目录同一文件系统的临时文件，边写边计算大小与 SHA-256，
+     * 完成后原子重命名到位。相比 multipart（先落 servlet 临时文件再复制）少写一遍磁盘。
+     *
+     * @param declaredSize   Content-Length，未知时为 -1
+     * @param expectedSha256 客户端声明的 SHA-256（可选），不一致时拒绝
+     */
+    public MoranFile uploadStream(InputStream input, String originalName, long declaredSize, String mimeType,
+                                  String expectedSha256, Long parentId) throws IOException {
+        logger.info("Streaming upload: {} (declared size: {}) to parent {}", originalName, declaredSize, parentId);
+        Path tempDir = Paths.get(storagePath, TEMP_DIR);
+        Files.createDirectories(tempDir);
+        Path temp = Files.createFile(tempDir.resolve("upload-" + UUID.randomUUID() + ".tmp"));  // 权限遵循 umask
+        // 已知大小时先整体预留，超额的上传在写入任何字节前就被拒绝
+        try (QuotaService.Reservation reservation = quotaService.reserve(getCurrentUserId(), Math.max(declaredSize, 0))) {
+            MessageDigest digest = BlobStore.newSha256();
+            long size = 0;
+            long start = System.nanoTime();
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                byte[] buffer = new byte[64 * 1024];
+                int read;
+                while ((read = input.read(buffer)) != -1) {
+                    size += read;
+                    if (size > reservation.getBytes()) {
+                        reservation.adjust(size);  // 大小未知或超出声明时边收边预留，超额即中止
+                    }
+                    digest.update(buffer, 0, read);
+                    out.write(buffer, 0, read);
+                }
+            }
+            metrics.recordUpload(size, System.nanoTime() - start);
+            if (declaredSize >= 0 && size != declaredSize) {
+                throw new RuntimeException("Incomplete upload: expected " + declaredSize + " bytes, got " + size);
+            }
+            String sha256 = HexFormat.of().formatHex(digest.digest());
+            if (expectedSha256 != null && !expectedSha256.equalsIgnoreCase(sha256)) {
+                throw new RuntimeException("Checksum mismatch");
             }
+            reservation.adjust(size);
+            return storeFile(temp, originalName, size, mimeType, sha256, parentId, reservation);
+        } finally {
+            Files.deleteIfExists(temp);  // 成功时已被移走
+        }
+    }
+
+    /**
+     * 秒传：客户端先提交文件大小、SHA-256 与头部摘要，当前用户已有相同内容时直接登记记录并计入配额，无需传输。
+     * <p>
+     * 摘要只能说明客户端知道这些值，不能证明持有内容（256 KB 以内的文件头部摘要就是 SHA-256），
+     * 因此只在当前用户自己的文件（含回收站）中匹配，不能凭 hash 取得其他用户的内容；
+     * 跨用户的相同内容仍会在正常上传入库时去重，只是要传输一次。
+     *
+     * @return 新建的记录；没有该内容、校验不通过或内容已从磁盘丢失时返回 null，客户端应走正常上传
+     */
+    @Transactional
+    public MoranFile instantUpload(String originalName, long size, String sha256, String headHash,
+                                   String mimeType, Long parentId) {
+        if (sha256 == null || headHash == null) {
+            throw new RuntimeException("Missing content hash");
+        }
+        String hash = sha256.toLowerCase();
+        Long userId = getCurrentUserId();
+        Optional<Blob> blob = blobStore.find(hash);
+        if (blob.isEmpty() || blob.get().getSize() != size || !headHash.equalsIgnoreCase(blob.get().getHeadHash())
+                || !fileRepository.existsByUserIdAndSha256(userId, hash) || isLost(false, hash, null)) {
+            logger.debug("Instant upload miss for {} ({} bytes)", originalName, size);
+            return null;
         }
 
-        Path targetPath = basePath.resolve(finalName);
-        while (Files.exists(targetPath) && counter < 100) {  // Prevent infinite loop, max 99 attempts
-            finalName = baseName + " (" + counter + ")" + extension;
-            targetPath = basePath.resolve(finalName);
-            counter++;
+        try (QuotaService.Reservation reservation = quotaService.reserve(userId, size)) {
+            MoranFile parent = findParentFolder(parentId);
+            String filePath = resolveUploadPath(parent, originalName);
+            blobStore.retain(hash);
+            MoranFile saved = saveFileRecord(filePath, originalName, size, mimeType, hash, parent);
+            reservation.commit();
+            logger.info("Instant upload hit: {} -> file ID {}", originalName, saved.getId());
+            return saved;
         }
+    }
 
-        if (counter >= 100) {
-            throw new RuntimeException("Too many filename conflicts for " + originalName);
+    /** 生成父目录下不冲突的逻辑路径，重名时由名称索引分配 "name (n).ext" */
+    private String resolveUploadPath(MoranFile parent, String originalName) {
+        if (originalName == null || originalName.trim().isEmpty()) {
+            throw new RuntimeException("Invalid filename");
         }
+        String finalName = nameIndex.allocate(getCurrentUserId(), parent != null ? parent.getId() : null, originalName);
+        return buildFullPath(parent, finalName);
+    }
+
+    private MoranFile saveFileRecord(String filePath, String originalName, long size,
+                                     String mimeType, String sha256, MoranFile parent) {
+        MoranFile moranFile = new MoranFile();
+        moranFile.setName(originalName);  // Store original name in DB
+        moranFile.setPath(filePath);  // Path uses final (unique) name
+        moranFile.setSize(size);
+        moranFile.setMimeType(mimeType);
+        moranFile.setSha256(sha256);
+        moranFile.setUser((User) SecurityContextHolder.getContext().getAuthentication().getPrincipal());
+        moranFile.setParentId(parent != null ? parent.getId() : null);
+        moranFile.setAncestors(childAncestors(parent));
+
+        MoranFile saved = fileRepository.save(moranFile);
+        searchIndex.index(saved);
+        logger.info("Upload successful: file ID {}", saved.getId());
+        return saved;
+    }
 
-        return finalName;
+    /**
+     * 父文件夹的 path 已是完整逻辑路径（物化路径，以 / 结尾），无需逐级向上查询。
+     */
+    private String buildFullPath(MoranFile parent, String finalName) {
+        String base = parent == null ? "" : parent.getPath().substring(0, parent.getPath().length() - 1);
+        return finalName == null ? base : base + "/" + finalName;
     }
 
-    private String buildFullPath(Long parentId, String finalName) {
-        StringBuilder path = new StringBuilder();
-        Long current = parentId;
-        while (current != null) {
-            Optional<MoranFile> parent = fileRepository.findById(current);
-            if (parent.isPresent()) {
-                path.insert(0, "/" + parent.get().getName());
-                current = parent.get().getParentId();
-            } else {
-                current = null;
-            }
+    /** 子节点的祖先链：父节点的祖先链 + 父节点 ID，根目录下为 "/" */
+    private static String childAncestors(MoranFile parent) {
+        return parent == null ? "/" : parent.getAncestors() + parent.getId() + "/";
+    }
+
+    /** 以 folder 为根的子树（不含自身）的 ancestors 前缀 */
+    private static String descendantPrefix(MoranFile folder) {
+        return childAncestors(folder);
+    }
+
+    /** 加载并校验目标父文件夹，根目录返回 null */
+    private MoranFile findParentFolder(Long parentId) {
+        if (parentId == null) {
+            return null;
+        }
+        MoranFile parent = fileRepository.findById(parentId)
+                .orElseThrow(() -> new RuntimeException("Parent folder not found: " + parentId));
+        if (!parent.getUser().getId().equals(getCurrentUserId())) {
+            throw new RuntimeException("Unauthorized access to folder");
         }
-        if (finalName != null) {
-            path.append("/" + finalName);
+        if (!parent.getIsFolder() || parent.getDeleted()) {
+            throw new RuntimeException("Parent is not a folder: " + parentId);
         }
-        return path.toString();
+        return parent;
     }
 
     @Transactional
@@ -216,56 +518,28 @@ public class FileService {
         logger.info("Creating folder: {} in parent {}", folderName, parentId);
         Long userId = getCurrentUserId();
 
-        // Check for existing active folder with same name
-        Optional<MoranFile> existing = fileRepository.findByUserIdAndParentIdAndNameAndDeletedIsFalse(userId, parentId, folderName);
-        if (existing.isPresent()) {
+        // 文件夹只存在于数据库中，磁盘上只有按内容寻址的 Blob
+        MoranFile parent = findParentFolder(parentId);
+        if (!nameIndex.reserve(userId, parentId, folderName)) {
             throw new RuntimeException("Folder already exists");
         }
+        String fullPath = buildFullPath(parent, folderName);
 
-        String fullPath = buildFullPath(parentId, folderName);
-        Path targetDir = Paths.get(storagePath, fullPath);
-        try {
-            if (!Files.exists(targetDir)) {
-                Files.createDirectories(targetDir);
-                logger.info("Created folder dir: {}", targetDir);
-            }
-        } catch (IOException e) {
-            logger.error("Failed to create folder dir: {}", e.getMessage());
-            throw new RuntimeException("Failed to create folder directory", e);
-        }
+        MoranFile saved = saveFolderRecord(folderName, fullPath + "/", parent);  // dir end with /
+        searchIndex.index(saved);
+        logger.info("Folder created: ID {}", saved.getId());
+        return saved;
+    }
 
+    private MoranFile saveFolderRecord(String folderName, String path, MoranFile parent) {
         MoranFile folder = new MoranFile();
         folder.setName(folderName);
-        folder.setPath(fullPath + "/");  // dir end with /
+        folder.setPath(path);
         folder.setIsFolder(true);
         folder.setUser((User) SecurityContextHolder.getContext().getAuthentication().getPrincipal());
-        folder.setParentId(parentId);
-
-        MoranFile saved = fileRepository.save(folder);
-        logger.info("Folder created: ID {}", saved.getId());
-        return saved;
-    }
-
-    /**
-     * Helper method to get all direct and indirect descendants of a folder (excluding self).
-     */
-    private List<MoranFile> getDescendants(Long folderId) {
-        List<MoranFile> descendants = new ArrayList<>();
-        Queue<Long> queue = new ArrayDeque<>();
-        queue.add(folderId);
-
-        Long userId = getCurrentUserId();
-        while (!queue.isEmpty()) {
-            Long currentId = queue.poll();
-            List<MoranFile> children = fileRepository.findByUserIdAndParentIdAndDeletedIsFalseOrderByNameAsc(userId, currentId);
-            for (MoranFile child : children) {
-                descendants.add(child);
-                if (child.getIsFolder()) {
-                    queue.add(child.getId());
-                }
-            }
-        }
-        return descendants;
+        folder.setParentId(parent != null ? parent.getId() : null);
+        folder.setAncestors(childAncestors(parent));
+        return fileRepository.save(folder);
     }
 
     @Transactional
@@ -276,10 +550,12 @@ public class FileService {
         }
         file.setDeleted(true);
         fileRepository.save(file);
+        nameIndex.release(file.getUser().getId(), file.getParentId(), NameIndex.nameOf(file.getPath()));
+        if (file.getSha256() != null) {
+            blobStore.release(file.getSha256());
+        }
         if (!file.getIsFolder() && file.getSize() != null) {
-            Quota quota = quotaRepository.findById(1L).orElseThrow(() -> new RuntimeException("Quota not found"));
-            quota.setUsedSpace(Math.max(0, quota.getUsedSpace() - file.getSize()));
-            quotaRepository.save(quota);
+            quotaService.release(file.getUser().getId(), file.getSize());
             logger.info("Soft deleted file {} and updated quota", id);
         } else {
             logger.info("Soft deleted folder {}", id);
@@ -296,78 +572,231 @@ public class FileService {
             throw new RuntimeException("Invalid name");
         }
 
-        String oldName = file.getName();
-        boolean isFolder = file.getIsFolder() != null && file.getIsFolder();
-        String oldSuffix = isFolder ? "/" : "";
-        String newSuffix = isFolder ? "/" : "";
-
-        // Build old and new base paths
-        String oldBasePath = buildFullPath(file.getParentId(), oldName) + oldSuffix;
-        String newBasePath = buildFullPath(file.getParentId(), newName) + newSuffix;
-
-        // Calculate old and new full paths for physical move
-        String oldFullPath = file.getPath(); // Already includes suffix for folders
-        String newFullPath;
-        if (file.getParentId() == null) {
-            // Root level
-            newFullPath = "/" + newName + newSuffix;
-        } else {
-            String parentPath = buildFullPath(file.getParentId(), null);
-            newFullPath = parentPath + "/" + newName + newSuffix;
+        MoranFile parent = file.getParentId() == null ? null : fileRepository.findById(file.getParentId()).orElse(null);
+        relocate(file, parent, newName);
+        logger.info("Rename successful: ID {}", id);
+        return file;
+    }
+
+    /**
+     * 移动到另一个文件夹（targetParentId 为 null 表示根目录），不能移动到自身或其子文件夹中。
+     */
+    @Transactional
+    public MoranFile moveFile(Long id, Long targetParentId) {
+        logger.info("Moving file ID {} to folder {}", id, targetParentId);
+        MoranFile file = getFileById(id);
+        MoranFile target = findParentFolder(targetParentId);
+        if (isSelfOrInside(target, file)) {
+            throw new RuntimeException("Cannot move a folder into itself");
+        }
+        if (Objects.equals(file.getParentId(), targetParentId)) {
+            return file;
         }
+        relocate(file, target, file.getName());
+        logger.info("Move successful: ID {}", id);
+        return file;
+    }
 
-        // Physical move
-        Path oldPathObj = Paths.get(storagePath, oldFullPath);
-        Path newPathObj = Paths.get(storagePath, newFullPath);
-        try {
-            if (Files.exists(oldPathObj)) {
-                // For directories, Files.move will recursively move the entire tree
-                Files.move(oldPathObj, newPathObj, StandardCopyOption.REPLACE_EXISTING);
-                logger.info("Moved path from {} to {}", oldFullPath, newFullPath);
-            }
-        } catch (IOException e) {
-            logger.error("Failed to move path: {}", e.getMessage());
-            throw new RuntimeException("Failed to rename on disk: " + e.getMessage(), e);
+    /**
+     * 将 file 放到 parent 下并命名为 newName。内容按 hash 存放，只需改数据库；
+     * 文件夹的整个子树用一条 UPDATE 改写 path 与 ancestors 前缀，不逐行加载。
+     */
+    private void relocate(MoranFile file, MoranFile parent, String newName) {
+        if (!reserveName(file, parent, newName)) {
+            throw new RuntimeException("Name already exists: " + newName);
         }
+        applyRelocation(file, parent, newName);
+    }
+
+    /**
+     * 在 parent 下占用 newName 并让出原名称（事务回滚时撤销），路径不变时无需占用。
+     * 名称已被占用时返回 false，不做任何修改。
+     */
+    private boolean reserveName(MoranFile file, MoranFile parent, String newName) {
+        boolean isFolder = file.getIsFolder() != null && file.getIsFolder();
+        String oldPath = file.getPath();
+        if (oldPath.equals(buildFullPath(parent, newName) + (isFolder ? "/" : ""))) {
+            return true;
+        }
+        Long userId = file.getUser().getId();
+        if (!nameIndex.reserve(userId, parent != null ? parent.getId() : null, newName)) {
+            return false;
+        }
+        nameIndex.release(userId, file.getParentId(), NameIndex.nameOf(oldPath));
+        return true;
+    }
+
+    /** relocate 的数据库部分，名称已由 {@link #reserveName} 占用 */
+    private void applyRelocation(MoranFile file, MoranFile parent, String newName) {
+        boolean isFolder = file.getIsFolder() != null && file.getIsFolder();
+        String oldPath = file.getPath();  // Already includes suffix for folders
+        String oldName = file.getName();
+        String oldPrefix = descendantPrefix(file);
+        String newPath = buildFullPath(parent, newName) + (isFolder ? "/" : "");
 
-        // Update DB: self first
         file.setName(newName);
-        file.setPath(newFullPath);
+        file.setPath(newPath);
+        file.setParentId(parent != null ? parent.getId() : null);
+        file.setAncestors(childAncestors(parent));
         fileRepository.save(file);
+        if (!newName.equals(oldName)) {
+            searchIndex.index(file);  // 索引只含名称，移动不影响
+        }
 
-        // If folder, update all descendants' paths
-        if (isFolder) {
-            List<MoranFile> descendants = getDescendants(id);
-            for (MoranFile desc : descendants) {
-                String oldDescPath = desc.getPath();
-                // Compute relative path and rebuild
-                if (oldDescPath.startsWith(oldBasePath)) {
-                    String relativePath = oldDescPath.substring(oldBasePath.length());
-                    String newDescPath = newBasePath + relativePath;
-                    desc.setPath(newDescPath);
-                    fileRepository.save(desc);
-                    logger.debug("Updated descendant path: {} -> {}", oldDescPath, newDescPath);
-                }
+        String newPrefix = descendantPrefix(file);
+        if (isFolder && (!newPath.equals(oldPath) || !newPrefix.equals(oldPrefix))) {
+            int updated = fileRepository.relocateSubtree(file.getUser().getId(), oldPrefix,
+                    oldPath, newPath, newPrefix);
+            logger.info("Rewrote {} descendant paths: {} -> {}", updated, oldPath, newPath);
+        }
+    }
+
+    /**
+     * 复制文件或文件夹（连同整个子树）到 targetParentId（null 为根目录），重名时与上传一样命名为 "name (n)"。
+     * 内容寻址的内容不复制数据，只增加 Blob 引用；配额按复制的总大小一次预留。
+     */
+    @Transactional
+    public MoranFile copyFile(Long id, Long targetParentId) {
+        logger.info("Copying file ID {} to folder {}", id, targetParentId);
+        Long userId = getCurrentUserId();
+        MoranFile source = getFileById(id);
+        MoranFile target = findParentFolder(targetParentId);
+        if (isSelfOrInside(target, source)) {
+            throw new RuntimeException("Cannot copy a folder into itself");
+        }
+        try (QuotaService.Reservation reservation = quotaService.reserve(userId, contentSize(userId, source))) {
+            MoranFile copy = copyInto(userId, source, target);
+            reservation.commit();
+            logger.info("Copy successful: ID {} -> {}", id, copy.getId());
+            return copy;
+        }
+    }
+
+    private long contentSize(Long userId, MoranFile file) {
+        if (file.getIsFolder()) {
+            return fileRepository.sumSubtreeSize(userId, descendantPrefix(file));
+        }
+        return file.getSize() != null ? file.getSize() : 0;
+    }
+
+    /**
+     * 在 target 下建立 source 的副本。文件夹按层级逐个建立（父在前，需要新 ID 组成 ancestors），
+     * 每个文件夹中的文件用一条 INSERT ... SELECT 复制，Blob 引用按内容一次性增加。
+     * 内容寻址之前的旧文件先在线程池中并行导入为 Blob，再登记记录。
+     */
+    private MoranFile copyInto(Long userId, MoranFile source, MoranFile target) {
+        if (!source.getIsFolder()) {
+            String hash;
+            if (source.getSha256() != null) {
+                blobStore.retain(source.getSha256());
+                hash = source.getSha256();
+            } else {
+                hash = importLegacyContent(List.of(source)).get(source.getId());
             }
-            logger.info("Updated {} descendant paths for renamed folder {}", descendants.size(), id);
+            return saveFileRecord(resolveUploadPath(target, source.getName()), source.getName(),
+                    source.getSize() != null ? source.getSize() : 0, source.getMimeType(), hash, target);
         }
 
-        MoranFile updated = file;
-        logger.info("Rename successful: ID {}", id);
-        return updated;
+        String prefix = descendantPrefix(source);
+        List<MoranFile> legacyFiles = fileRepository.findSubtreeLegacyFiles(userId, prefix);
+        Map<Long, String> importedHashes = importLegacyContent(legacyFiles);
+        for (Object[] row : fileRepository.countSubtreeBlobs(userId, prefix)) {
+            blobStore.retain((String) row[0], (Long) row[1]);
+        }
+
+        String rootName = nameIndex.allocate(userId, target != null ? target.getId() : null, source.getName());
+        MoranFile root = saveFolderRecord(rootName, buildFullPath(target, rootName) + "/", target);
+        Map<Long, MoranFile> copies = new LinkedHashMap<>();
+        Map<Long, MoranFile> originals = new HashMap<>();
+        copies.put(source.getId(), root);
+        originals.put(source.getId(), source);
+        for (MoranFile folder : fileRepository.findSubtreeFolders(userId, prefix)) {
+            MoranFile parentCopy = copies.get(folder.getParentId());
+            copies.put(folder.getId(), saveFolderRecord(folder.getName(),
+                    parentCopy.getPath() + NameIndex.nameOf(folder.getPath()) + "/", parentCopy));
+            originals.put(folder.getId(), folder);
+        }
+
+        LocalDateTime now = LocalDateTime.now();
+        int copied = 0;
+        for (Map.Entry<Long, MoranFile> entry : copies.entrySet()) {
+            MoranFile original = originals.get(entry.getKey());
+            MoranFile copy = entry.getValue();
+            copied += fileRepository.copyFolderFiles(userId, original.getId(), original.getPath(),
+                    copy.getId(), copy.getPath(), copy.getAncestors(), now);
+        }
+        for (MoranFile legacy : legacyFiles) {
+            MoranFile parentCopy = copies.get(legacy.getParentId());
+            saveFileRecord(parentCopy.getPath() + NameIndex.nameOf(legacy.getPath()), legacy.getName(),
+                    legacy.getSize() != null ? legacy.getSize() : 0, legacy.getMimeType(),
+                    importedHashes.get(legacy.getId()), parentCopy);
+        }
+
+        // INSERT ... SELECT 写入的行没有经过实体，按新子树一次查出后加入搜索索引
+        searchIndex.index(root);
+        fileRepository.findByUserIdAndAncestorsStartingWithAndDeletedIsFalse(userId, descendantPrefix(root))
+                .forEach(searchIndex::index);
+        logger.info("Copied folder {} -> {}: {} folders, {} files", source.getId(), root.getId(),
+                copies.size(), copied + legacyFiles.size());
+        return root;
     }
 
-    public byte[] downloadFile(Long id) throws IOException {
-        logger.debug("Downloading file ID: {}", id);
-        MoranFile file = getFileById(id);  // Uses validation
+    /**
+     * 并行把旧文件（无 hash，按逻辑路径存放）导入为 Blob，返回文件 ID 到 hash 的映射。
+     * 导入在独立事务中提交，当前事务回滚时撤销这些引用。
+     */
+    private Map<Long, String> importLegacyContent(List<MoranFile> files) {
+        Map<Long, CompletableFuture<String>> futures = new LinkedHashMap<>();
+        for (MoranFile file : files) {
+            Path content = getContentPath(null, file.getPath());
+            futures.put(file.getId(), CompletableFuture.supplyAsync(() -> {
+                try {
+                    return blobStore.importFile(content);
+                } catch (IOException e) {
+                    throw new RuntimeException("Failed to copy " + file.getName() + ": " + e.getMessage(), e);
+                }
+            }, copyExecutor));
+        }
+        Map<Long, String> hashes = new HashMap<>();
+        RuntimeException failure = null;
+        for (Map.Entry<Long, CompletableFuture<String>> entry : futures.entrySet()) {
+            try {
+                hashes.put(entry.getKey(), entry.getValue().join());
+            } catch (CompletionException e) {
+                failure = e.getCause() instanceof RuntimeException cause ? cause : new RuntimeException(e.getCause());
+            }
+        }
+        blobStore.releaseOnRollback(hashes.values());
+        if (failure != null) {
+            throw failure;
+        }
+        return hashes;
+    }
+
+    /**
+     * 返回文件内容在磁盘上的位置，由调用方流式输出，避免整文件读入堆内存。
+     */
+    public Path getContentPath(MoranFile file) {
+        logger.debug("Resolving content path for file ID: {}", file.getId());
         if (file.getIsFolder()) {
             throw new RuntimeException("Cannot download folder");
         }
-        return Files.readAllBytes(Paths.get(storagePath, file.getPath()));
+        return getContentPath(file.getSha256(), file.getPath());
     }
 
+    private Path getContentPath(String sha256, String path) {
+        if (sha256 != null) {
+            return blobStore.resolve(sha256);
+        }
+        return Paths.get(storagePath, path);  // 内容寻址存储之前的旧文件
+    }
+
+    /**
+     * 移入回收站：只改数据库标记，文件夹的整个子树用一条 UPDATE 标记，与子树大小无关。
+     * Blob 引用与配额在保留期满后由 {@link TrashPurger} 分批释放，期间可以恢复。
+     */
     @Transactional
-    public void deleteFile(Long id) throws IOException {
+    public void deleteFile(Long id) {
         logger.info("Deleting file ID: {}", id);
         MoranFile file = fileRepository.findById(id).orElseThrow(() -> new RuntimeException("File not found: " + id));
         Long userId = getCurrentUserId();
@@ -378,100 +807,386 @@ public class FileService {
             throw new RuntimeException("File already deleted");
         }
 
-        // Physical delete if exists
-        Path filePath = Paths.get(storagePath, file.getPath());
-        boolean existsOnDisk = Files.exists(filePath);
-        if (existsOnDisk) {
-            if (file.getIsFolder()) {
-                Files.walk(filePath).sorted((p1, p2) -> -p1.compareTo(p2)).forEach(p -> {
-                    try {
-                        Files.delete(p);
-                    } catch (IOException e) {
-                        logger.error("Failed to delete path: {}", p, e);
-                    }
-                });
-                logger.warn("Folder and contents deleted for ID: {}", id);
+        LocalDateTime now = LocalDateTime.now();
+        file.setDeleted(true);
+        file.setTrashRootId(id);
+        file.setDeletedAt(now);
+        fileRepository.save(file);
+        nameIndex.release(userId, file.getParentId(), NameIndex.nameOf(file.getPath()));
+        if (file.getIsFolder()) {
+            int trashed = fileRepository.trashSubtree(userId, descendantPrefix(file), id, now);
+            logger.info("Moved {} descendants of folder {} to the recycle bin", trashed, id);
+        }
+        logger.info("Delete successful: ID {}", id);
+    }
+
+    /** 回收站中仍可恢复的条目（每次删除操作一项） */
+    public List<FileItem> listTrash() {
+        return fileRepository.findTrashItems(getCurrentUserId(), trashPurger.retentionCutoff());
+    }
+
+    /**
+     * 从回收站恢复到原位置（连同当时一起删除的子树）；原文件夹已不存在或也在回收站中时恢复到根目录。
+     */
+    @Transactional
+    public MoranFile restoreFile(Long id) {
+        logger.info("Restoring file ID {} from the recycle bin", id);
+        Long userId = getCurrentUserId();
+        MoranFile file = findTrashRoot(userId, id);
+        if (file.getDeletedAt().isBefore(trashPurger.retentionCutoff())) {
+            throw new RuntimeException("File is being purged");
+        }
+        MoranFile parent = file.getParentId() == null ? null : fileRepository.findById(file.getParentId())
+                .filter(folder -> !folder.getDeleted())
+                .orElse(null);
+        boolean parentGone = file.getParentId() != null && parent == null;
+        if (!parentGone && !nameIndex.reserve(userId, file.getParentId(), NameIndex.nameOf(file.getPath()))) {
+            throw new RuntimeException("Name already exists: " + file.getName());
+        }
+
+        int restored = fileRepository.restoreTrash(userId, id);
+        MoranFile result = fileRepository.findById(id).orElseThrow();
+        if (parentGone) {
+            relocate(result, null, result.getName());
+            logger.info("Original folder of {} is gone, restored to root", id);
+        }
+        logger.info("Restored {} entries from the recycle bin: ID {}", restored, id);
+        return result;
+    }
+
+    /** 彻底删除：不再等待保留期，由后台清理任务在下一轮处理 */
+    @Transactional
+    public void purgeFromTrash(Long id) {
+        Long userId = getCurrentUserId();
+        findTrashRoot(userId, id);
+        int expired = fileRepository.expireTrash(userId, id, TrashPurger.EXPIRED);
+        logger.info("Scheduled {} recycle bin entries of ID {} for purge", expired, id);
+    }
+
+    private MoranFile findTrashRoot(Long userId, Long id) {
+        MoranFile file = fileRepository.findById(id).orElseThrow(() -> new RuntimeException("File not found: " + id));
+        if (!file.getUser().getId().equals(userId)) {
+            throw new RuntimeException("Unauthorized");
+        }
+        if (!id.equals(file.getTrashRootId())) {
+            throw new RuntimeException("Not in recycle bin: " + id);
+        }
+        return file;
+    }
+
+    /**
+     * 批量移入回收站：一次查询加载所选条目，一条 UPDATE 标记全部，文件夹子树各一条 UPDATE。
+     * 位于另一个所选文件夹之内的条目随该文件夹一起删除，恢复时也一起恢复。
+     */
+    @Transactional
+    public List<BatchResult> deleteFiles(List<Long> ids) {
+        Long userId = getCurrentUserId();
+        Map<Long, BatchResult> results = new LinkedHashMap<>();
+        List<MoranFile> selected = loadBatch(userId, ids, results);
+        Set<Long> folderIds = selected.stream().filter(MoranFile::getIsFolder).map(MoranFile::getId).collect(Collectors.toSet());
+
+        List<MoranFile> roots = new ArrayList<>();
+        for (MoranFile file : selected) {
+            if (outermostSelected(file, folderIds) == null) {
+                roots.add(file);
+            }
+            results.put(file.getId(), BatchResult.ok(file.getId()));
+        }
+        if (roots.isEmpty()) {
+            return new ArrayList<>(results.values());
+        }
+
+        LocalDateTime now = LocalDateTime.now();
+        int trashed = fileRepository.trashItems(userId, roots.stream().map(MoranFile::getId).toList(), now);
+        for (MoranFile root : roots) {
+            nameIndex.release(userId, root.getParentId(), NameIndex.nameOf(root.getPath()));
+            if (root.getIsFolder()) {
+                trashed += fileRepository.trashSubtree(userId, descendantPrefix(root), root.getId(), now);
+            }
+        }
+        logger.info("Batch moved {} entries ({} selected) to the recycle bin", trashed, selected.size());
+        return new ArrayList<>(results.values());
+    }
+
+    /**
+     * 批量移动到同一个文件夹：一次查询加载所选条目，目标文件夹只校验一次，整批一个事务。
+     * 重名或移入自身的条目单独报告失败，其余照常移动；位于另一个所选文件夹之内的条目随该文件夹移动，
+     * 结果与该文件夹相同。
+     * 可能失败的校验（包括占用名称）都在写入之前完成，写入时的数据库错误使整批回滚，
+     * 不会在已标记回滚的事务中继续处理并报告成功。
+     */
+    @Transactional
+    public List<BatchResult> moveFiles(List<Long> ids, Long targetParentId) {
+        Long userId = getCurrentUserId();
+        MoranFile target = findParentFolder(targetParentId);
+        Map<Long, BatchResult> results = new LinkedHashMap<>();
+        List<MoranFile> selected = loadBatch(userId, ids, results);
+        Set<Long> folderIds = selected.stream().filter(MoranFile::getIsFolder).map(MoranFile::getId).collect(Collectors.toSet());
+
+        List<MoranFile> toMove = new ArrayList<>();
+        Map<Long, Long> nested = new HashMap<>();
+        for (MoranFile file : selected) {
+            Long id = file.getId();
+            Long enclosing = outermostSelected(file, folderIds);
+            if (enclosing != null) {
+                nested.put(id, enclosing);
+            } else if (Objects.equals(file.getParentId(), targetParentId)) {
+                results.put(id, BatchResult.ok(id));
+            } else if (isSelfOrInside(target, file)) {
+                results.put(id, BatchResult.failed(id, "Cannot move a folder into itself"));
+            } else if (!reserveName(file, target, file.getName())) {
+                results.put(id, BatchResult.failed(id, "Name already exists: " + file.getName()));
             } else {
-                Files.delete(filePath);
-                logger.debug("File physically deleted");
+                results.put(id, BatchResult.ok(id));
+                toMove.add(file);
             }
-        } else {
-            logger.warn("File {} already missing on disk", id);
         }
+        inheritResults(nested, results);
 
-        // Soft delete (marks as deleted, adjusts quota)
-        softDelete(id);
+        // 文件的 UPDATE 在 JDBC 批次中一起发出；文件夹改写子树时会清空持久化上下文，放在最后
+        toMove.sort(Comparator.comparing(MoranFile::getIsFolder));
+        for (MoranFile file : toMove) {
+            applyRelocation(file, target, file.getName());
+        }
+        logger.info("Batch moved {} of {} entries to folder {}", toMove.size(), ids.size(), targetParentId);
+        return new ArrayList<>(results.values());
+    }
 
-        // For folders, hard delete the DB record to release the unique path constraint
-        if (file.getIsFolder()) {
-            fileRepository.delete(file);
-            logger.info("Hard deleted folder record {} to release path constraint", id);
+    /**
+     * 批量复制到同一个文件夹：配额按整批的总大小一次预留，空间不足时整批失败；
+     * 复制到自身之内的条目单独报告失败，位于另一个所选文件夹之内的条目随该文件夹复制，结果与该文件夹相同。
+     */
+    @Transactional
+    public List<BatchResult> copyFiles(List<Long> ids, Long targetParentId) {
+        Long userId = getCurrentUserId();
+        MoranFile target = findParentFolder(targetParentId);
+        Map<Long, BatchResult> results = new LinkedHashMap<>();
+        List<MoranFile> selected = loadBatch(userId, ids, results);
+        Set<Long> folderIds = selected.stream().filter(MoranFile::getIsFolder).map(MoranFile::getId).collect(Collectors.toSet());
+
+        List<MoranFile> roots = new ArrayList<>();
+        Map<Long, Long> nested = new HashMap<>();
+        long bytes = 0;
+        for (MoranFile file : selected) {
+            Long id = file.getId();
+            Long enclosing = outermostSelected(file, folderIds);
+            if (enclosing != null) {
+                nested.put(id, enclosing);
+            } else if (isSelfOrInside(target, file)) {
+                results.put(id, BatchResult.failed(id, "Cannot copy a folder into itself"));
+            } else {
+                results.put(id, BatchResult.ok(id));
+                roots.add(file);
+                bytes += contentSize(userId, file);
+            }
         }
+        inheritResults(nested, results);
+        try (QuotaService.Reservation reservation = quotaService.reserve(userId, bytes)) {
+            for (MoranFile root : roots) {
+                copyInto(userId, root, target);
+            }
+            reservation.commit();
+        }
+        logger.info("Batch copied {} entries ({} bytes) to folder {}", roots.size(), bytes, targetParentId);
+        return new ArrayList<>(results.values());
+    }
 
-        logger.info("Delete successful: ID {}", id);
+    /**
+     * 按 ID 一次加载一批条目；不存在、不属于当前用户或已删除的条目直接记为失败，返回其余可操作的条目。
+     * results 按请求顺序预先占位。
+     */
+    private List<MoranFile> loadBatch(Long userId, List<Long> ids, Map<Long, BatchResult> results) {
+        if (ids == null || ids.isEmpty()) {
+            throw new RuntimeException("No files selected");
+        }
+        if (ids.size() > MAX_BATCH_SIZE) {
+            throw new RuntimeException("Too many files in one batch: " + ids.size() + " > " + MAX_BATCH_SIZE);
+        }
+        for (Long id : ids) {
+            results.put(id, BatchResult.failed(id, "File not found: " + id));
+        }
+        List<MoranFile> selected = new ArrayList<>();
+        for (MoranFile file : fileRepository.findAllById(results.keySet())) {
+            if (!file.getUser().getId().equals(userId)) {
+                continue;  // 与不存在的条目同样处理
+            }
+            if (file.getDeleted()) {
+                results.put(file.getId(), BatchResult.failed(file.getId(), "File has been deleted"));
+                continue;
+            }
+            selected.add(file);
+        }
+        return selected;
+    }
+
+    /** target 是否就是文件夹 folder 本身或位于其中（不能移动/复制到这里） */
+    private static boolean isSelfOrInside(MoranFile target, MoranFile folder) {
+        return target != null && folder.getIsFolder()
+                && (target.getId().equals(folder.getId()) || target.getAncestors().startsWith(descendantPrefix(folder)));
+    }
+
+    /** 位于 folderIds 中某个文件夹之下时返回最外层的那个（条目随它一起处理），否则返回 null */
+    private static Long outermostSelected(MoranFile file, Set<Long> folderIds) {
+        for (Long ancestorId : parseAncestors(file.getAncestors())) {  // 从根开始
+            if (folderIds.contains(ancestorId)) {
+                return ancestorId;
+            }
+        }
+        return null;
+    }
+
+    /** 随所选文件夹一起处理的条目（ID -> 最外层所选文件夹 ID）取该文件夹的结果 */
+    private static void inheritResults(Map<Long, Long> nested, Map<Long, BatchResult> results) {
+        nested.forEach((id, enclosing) -> {
+            BatchResult outcome = results.get(enclosing);
+            results.put(id, outcome.isSuccess() ? BatchResult.ok(id) : BatchResult.failed(id, outcome.getError()));
+        });
     }
 
     public Quota getQuota() {
         logger.debug("Fetching quota");
-        return quotaRepository.findById(1L).orElse(new Quota());
-    }
-
-    public List<MoranFile> getPathChain(Long id) {
-        List<MoranFile> chain = new ArrayList<>();
-        Long current = id;
-        while (current != null) {
-            MoranFile parent = fileRepository.findById(current).orElse(null);
-            if (parent != null && !parent.getDeleted()) {
-                Path parentPath = Paths.get(storagePath, parent.getPath());
-                if (Files.exists(parentPath)) {
-                    chain.add(0, parent);
-                    current = parent.getParentId();
-                } else {
-                    logger.warn("Path chain broken at {}, marking as lost", current);
-                    parent.setLost(true);
-                    chain.add(0, parent);
-                    current = parent.getParentId();  // Continue but mark
-                }
-            } else {
-                current = null;
+        return quotaService.getQuota(getCurrentUserId());
+    }
+
+    /**
+     * 面包屑：根据物化的祖先链一次性取出所有祖先，不再逐级查询。
+     */
+    public List<FileItem> getPathChain(Long id) {
+        Long userId = getCurrentUserId();
+        String ancestors = fileRepository.findAncestors(userId, id).orElse(null);
+        if (ancestors == null) {
+            return new ArrayList<>();  // 不存在、已删除或不属于当前用户
+        }
+        List<Long> chainIds = parseAncestors(ancestors);
+        chainIds.add(id);
+        Map<Long, FileItem> byId = fileRepository.findItemsByIds(userId, chainIds).stream()
+                .collect(Collectors.toMap(FileItem::getId, f -> f));
+
+        List<FileItem> chain = new ArrayList<>();
+        for (Long chainId : chainIds) {
+            FileItem item = byId.get(chainId);
+            if (item == null) {
+                chain.clear();  // 链在此处断开，只保留其后的部分
+                continue;
             }
+            chain.add(item);
         }
         return chain;
     }
 
-    public void zipFolder(Long folderId, OutputStream outputStream) throws IOException {
-        MoranFile folder = getFileById(folderId);
+    private static List<Long> parseAncestors(String ancestors) {
+        List<Long> ids = new ArrayList<>();
+        for (String part : ancestors.split("/")) {
+            if (!part.isEmpty()) {
+                ids.add(Long.parseLong(part));
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * 将文件夹打包为 ZIP 直接写入输出流（通常是 HTTP 响应），不在内存中缓冲整个压缩包。
+     * 子树与 {@link #exportListing} 一样按 (ancestors, id) 键集分页读取，内存占用与文件夹大小无关；
+     * 每个文件夹的条目先于其子文件夹中的条目写出。已压缩的格式（图片、音视频、压缩包等）以 STORED 方式写入，避免重复压缩。
+     */
+    public void zipFolder(MoranFile folder, OutputStream outputStream) throws IOException {
         if (!folder.getIsFolder()) {
             throw new RuntimeException("Cannot zip a file");
         }
 
-        ZipOutputStream zos = new ZipOutputStream(outputStream);
+        Long userId = folder.getUser().getId();
+        String prefix = descendantPrefix(folder);
+        String rootEntry = folder.getName() + "/";
+        int basePathLength = folder.getPath().length();  // 子孙的 path 都以文件夹的 path 开头
+        long start = System.nanoTime();
+        long entries = 0;
+        String result = "failed";
         try {
-            addToZip(folder, zos, "");  // Start with root folder
-            logger.info("Zipped folder {} successfully", folderId);
+            ZipOutputStream zos = new ZipOutputStream(outputStream);
+            zos.putNextEntry(new ZipEntry(rootEntry));
+            zos.closeEntry();
+            String afterAncestors = "";
+            long afterId = 0;
+            List<Object[]> rows;
+            do {
+                rows = fileRepository.findSubtreePage(userId, prefix, afterAncestors, afterId,
+                        PageRequest.of(0, MoranFileRepository.EXPORT_PAGE_SIZE));
+                for (Object[] row : rows) {
+                    FileItem item = (FileItem) row[0];
+                    addToZip(item, rootEntry + item.getPath().substring(basePathLength), zos);
+                    afterAncestors = (String) row[1];
+                    afterId = item.getId();
+                    entries++;
+                }
+            } while (rows.size() == MoranFileRepository.EXPORT_PAGE_SIZE);
+            zos.finish();  // 不关闭底层响应流，由容器负责
+            result = "success";
         } finally {
-            zos.close();
+            metrics.recordJob("zip", result, System.nanoTime() - start);
         }
+        logger.info("Zipped folder {} ({} entries) successfully", folder.getId(), entries);
     }
 
-    private void addToZip(MoranFile file, ZipOutputStream zos, String relativePath) throws IOException {
-        String entryName = relativePath.isEmpty() ? file.getName() + "/" : relativePath + file.getName() + (file.getIsFolder() ? "/" : "");
+    private void addToZip(FileItem file, String entryName, ZipOutputStream zos) throws IOException {
+        if (file.getIsFolder()) {
+            zos.putNextEntry(new ZipEntry(entryName));  // 文件夹的 path 以 / 结尾
+            zos.closeEntry();
+            return;
+        }
+
+        Path filePath = getContentPath(file.getSha256(), file.getPath());
+        if (!Files.isRegularFile(filePath)) {
+            logger.warn("Skipping lost file {} while zipping", file.getId());
+            return;
+        }
         ZipEntry entry = new ZipEntry(entryName);
+        if (isPrecompressed(file.getMimeType())) {
+            // STORED 需要事先给出大小与 CRC；多读一遍文件远比 Deflate 已压缩数据便宜
+            long size = Files.size(filePath);
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(size);
+            entry.setCompressedSize(size);
+            entry.setCrc(crc32(filePath));
+        }
         zos.putNextEntry(entry);
+        Files.copy(filePath, zos);
+        zos.closeEntry();
+    }
 
-        if (file.getIsFolder()) {
-            zos.closeEntry();  // Close empty folder entry
-            List<MoranFile> children = fileRepository.findByUserIdAndParentIdAndDeletedIsFalseOrderByNameAsc(getCurrentUserId(), file.getId());
-            for (MoranFile child : children) {
-                if (!child.getLost() && !child.getDeleted()) {  // Skip lost/deleted
-                    addToZip(child, zos, entryName);
-                }
+    private long crc32(Path path) throws IOException {
+        CRC32 crc = new CRC32();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            while (channel.read(buffer) > 0) {
+                buffer.flip();
+                crc.update(buffer);
+                buffer.clear();
             }
-        } else {
-            // Add file content
-            Path filePath = Paths.get(storagePath, file.getPath());
-            Files.copy(filePath, zos);
-            zos.closeEntry();
         }
+        return crc.getValue();
+    }
+
+    /** 已压缩的内容再 Deflate 几乎没有收益，只会浪费 CPU */
+    private boolean isPrecompressed(String mimeType) {
+        if (mimeType == null) {
+            return false;
+        }
+        String type = mimeType.toLowerCase();
+        if (type.startsWith("image/")) {
+            return !type.equals("image/svg+xml") && !type.equals("image/bmp") && !type.equals("image/x-ms-bmp");
+        }
+        return type.startsWith("video/")
+                || type.startsWith("audio/")
+                || type.equals("application/pdf")
+                || type.equals("application/zip")
+                || type.equals("application/gzip")
+                || type.equals("application/x-gzip")
+                || type.equals("application/x-7z-compressed")
+                || type.equals("application/x-rar-compressed")
+                || type.equals("application/vnd.rar")
+                || type.equals("application/x-bzip2")
+                || type.equals("application/x-xz")
+                || type.equals("application/java-archive")
+                || type.startsWith("application/vnd.openxmlformats-officedocument.");
     }
 }
\ No newline at end of file
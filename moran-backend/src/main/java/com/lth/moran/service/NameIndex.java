@@ -0,0 +1,232 @@
+package com.lth.moran.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.lth.moran.repository.MoranFileRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 每个文件夹（用户 + 父文件夹）下已占用名称的内存索引，用于上传重名时分配 "name (n).ext"、
+ * 以及新建、重命名、移动时的冲突检查。名称指路径的最后一段，文件与文件夹共用同一命名空间。
+ * <p>
+ * 首次访问时一次查询加载，之后随写入增量维护：分配或占用的名称立即生效，事务回滚时撤销；
+ * 离开文件夹的名称在事务提交后移除。同一文件夹的操作在分段锁内串行，并发上传不会拿到同一个名称。
+ * 尚未提交的占用另存在 pending 中，缓存条目被淘汰后重新加载也不会丢失。
+ */
+@Component
+public class NameIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(NameIndex.class);
+
+    private static final int LOCK_STRIPES = 64;
+
+    /** "name (3).ext" 形式：基础名、序号、扩展名 */
+    private static final Pattern NUMBERED = Pattern.compile("^(.*) \\((\\d+)\\)(\\.[^.]+)?$");
+
+    private final MoranFileRepository fileRepository;
+
+    private final Cache<Key, Folder> folders;
+
+    /** 已分配但所在事务尚未结束的名称，不受缓存淘汰影响 */
+    private final ConcurrentHashMap<Key, Set<String>> pending = new ConcurrentHashMap<>();
+
+    /** 临界区内可能查询数据库，用 ReentrantLock 而非 synchronized，避免钉住虚拟线程 */
+    private final ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+
+    public NameIndex(MoranFileRepository fileRepository,
+                     @Value("${name-index.max-names:1000000}") long maxNames,
+                     @Value("${name-index.expire-minutes:30}") long expireMinutes) {
+        this.fileRepository = fileRepository;
+        this.folders = Caffeine.newBuilder()
+                .maximumWeight(maxNames)
+                .weigher((Key key, Folder folder) -> Math.max(1, folder.names.size()))  // 按加载时的条目数计
+                .expireAfterAccess(expireMinutes, TimeUnit.MINUTES)
+                .build();
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * 在文件夹下为 desired 分配一个未占用的名称：desired 本身可用时直接返回，
+     * 否则返回 "base (n).ext"，n 从该名称上次分配的序号继续，不逐个试探，也没有次数上限。
+     */
+    public String allocate(Long userId, Long parentId, String desired) {
+        Key key = new Key(userId, parentId);
+        ReentrantLock lock = lockFor(key);
+        lock.lock();
+        try {
+            Folder folder = load(key);
+            Set<String> reserved = pending.getOrDefault(key, Set.of());
+            String name = desired;
+            if (folder.names.contains(name) || reserved.contains(name)) {
+                String base = desired;
+                String extension = "";
+                int counter = 1;
+                Matcher matcher = NUMBERED.matcher(desired);
+                if (matcher.matches()) {
+                    base = matcher.group(1);
+                    counter = Integer.parseInt(matcher.group(2)) + 1;
+                    extension = matcher.group(3) != null ? matcher.group(3) : "";
+                } else {
+                    int dotIndex = desired.lastIndexOf('.');
+                    if (dotIndex > 0) {
+                        base = desired.substring(0, dotIndex);
+                        extension = desired.substring(dotIndex);
+                    }
+                }
+                String family = base + "\0" + extension;
+                counter = Math.max(counter, folder.nextSuffix.getOrDefault(family, 1));
+                do {
+                    name = base + " (" + counter + ")" + extension;
+                    counter++;
+                } while (folder.names.contains(name) || reserved.contains(name));
+                folder.nextSuffix.put(family, counter);
+            }
+            occupy(key, folder, name);
+            return name;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** 占用指定名称（新建文件夹、重命名、移动、恢复），已被占用时返回 false */
+    public boolean reserve(Long userId, Long parentId, String name) {
+        Key key = new Key(userId, parentId);
+        ReentrantLock lock = lockFor(key);
+        lock.lock();
+        try {
+            Folder folder = load(key);
+            if (folder.names.contains(name) || pending.getOrDefault(key, Set.of()).contains(name)) {
+                return false;
+            }
+            occupy(key, folder, name);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** 名称离开文件夹（删除、重命名、移走），当前事务提交后生效 */
+    public void release(Long userId, Long parentId, String name) {
+        Key key = new Key(userId, parentId);
+        afterCompletion(committed -> {
+            if (committed) {
+                withLock(key, () -> {
+                    Folder folder = folders.getIfPresent(key);
+                    if (folder != null) {
+                        folder.names.remove(name);
+                    }
+                });
+            }
+        });
+    }
+
+    /** 路径的最后一段，文件夹去掉末尾的 / */
+    public static String nameOf(String path) {
+        String trimmed = path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+        return trimmed.substring(trimmed.lastIndexOf('/') + 1);
+    }
+
+    private void occupy(Key key, Folder folder, String name) {
+        folder.names.add(name);
+        pending.computeIfAbsent(key, k -> new HashSet<>()).add(name);
+        afterCompletion(committed -> withLock(key, () -> {
+            Set<String> reserved = pending.get(key);
+            if (reserved != null) {
+                reserved.remove(name);
+                if (reserved.isEmpty()) {
+                    pending.remove(key);
+                }
+            }
+            // 条目可能在此期间被淘汰并重新加载（未包含本次写入），以提交结果为准修正当前条目
+            Folder current = folders.getIfPresent(key);
+            if (current != null) {
+                if (committed) {
+                    current.names.add(name);
+                } else {
+                    current.names.remove(name);
+                }
+            }
+        }));
+    }
+
+    /**
+     * 调用方持有 key 的分段锁，同一文件夹不会并发加载。查询不放在 Cache.get 的加载函数中：
+     * 加载函数在缓存内部 ConcurrentHashMap 的 compute 中执行，会钉住虚拟线程并阻塞同一桶的其他条目。
+     */
+    private Folder load(Key key) {
+        Folder folder = folders.getIfPresent(key);
+        if (folder != null) {
+            return folder;
+        }
+        List<String> paths = key.parentId == null
+                ? fileRepository.findRootPaths(key.userId)
+                : fileRepository.findChildPaths(key.userId, key.parentId);
+        folder = new Folder();
+        for (String path : paths) {
+            folder.names.add(nameOf(path));
+        }
+        folders.put(key, folder);
+        logger.debug("Loaded name index for user {} folder {}: {} names", key.userId, key.parentId, paths.size());
+        return folder;
+    }
+
+    private void withLock(Key key, Runnable action) {
+        ReentrantLock lock = lockFor(key);
+        lock.lock();
+        try {
+            action.run();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 没有事务时（如流式上传直接保存记录）按已提交处理：分配的名称立即确认，
+     * 之后保存失败的调用方须自行 {@link #release} 让出。
+     */
+    private static void afterCompletion(Consumer<Boolean> action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    action.accept(status == STATUS_COMMITTED);
+                }
+            });
+        } else {
+            action.accept(true);
+        }
+    }
+
+    private ReentrantLock lockFor(Key key) {
+        return locks[Math.floorMod(key.hashCode(), LOCK_STRIPES)];
+    }
+
+    private record Key(Long userId, Long parentId) {
+    }
+
+    /** 只在对应分段锁内访问 */
+    private static class Folder {
+        final Set<String> names = new HashSet<>();
+        /** 每组 "base (n).ext" 下一个待尝试的序号 */
+        final Map<String, Integer> nextSuffix = new HashMap<>();
+    }
+}
@@ -0,0 +1,299 @@
+package com.lth.moran.service;
+
+import com.lth.moran.entity.Quota;
+import com.lth.moran.repository.MoranFileRepository;
+import com.lth.moran.repository.QuotaRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 按用户的配额记账。上传前先在内存中预留空间（超额直接拒绝，不写任何字节），
+ * 事务提交后预留转为已用量并累加到 LongAdder，由后台任务以 used_space = used_space + delta
+ * 的单条 UPDATE 批量写回，上传与删除不再争用同一行。定期按 files 表重新核对已用量。
+ */
+@Service
+public class QuotaService {
+
+    private static final Logger logger = LoggerFactory.getLogger(QuotaService.class);
+
+    private final QuotaRepository quotaRepository;
+    private final MoranFileRepository fileRepository;
+    private final TransactionTemplate requiresNew;
+    private final MeterRegistry meterRegistry;
+
+    private final ConcurrentHashMap<Long, Account> accounts = new ConcurrentHashMap<>();
+
+    /** 串行化账户的首次加载（可能插入配额行） */
+    private final ReentrantLock loadLock = new ReentrantLock();
+
+    @Value("${quota.total:10737418240}")
+    private long defaultTotalSpace;
+
+    public QuotaService(QuotaRepository quotaRepository, MoranFileRepository fileRepository,
+                        PlatformTransactionManager transactionManager, MeterRegistry meterRegistry) {
+        this.quotaRepository = quotaRepository;
+        this.fileRepository = fileRepository;
+        this.meterRegistry = meterRegistry;
+        this.requiresNew = new TransactionTemplate(transactionManager);
+        this.requiresNew.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    /** 用户的配额行不存在时按默认总量创建 */
+    public void ensureQuota(Long userId) {
+        account(userId);
+    }
+
+    /** 当前配额视图：已写回的用量 + 尚未写回的增量 */
+    public Quota getQuota(Long userId) {
+        Account account = account(userId);
+        Quota quota = new Quota();
+        quota.setId(userId);
+        quota.setTotalSpace(account.totalSpace);
+        quota.setUsedSpace(Math.max(0, account.used()));
+        return quota;
+    }
+
+    /** 只检查剩余空间，不预留（如创建分片上传会话时提前拒绝） */
+    public void check(Long userId, long bytes) {
+        Account account = account(userId);
+        if (account.used() + account.reserved.get() + bytes > account.totalSpace) {
+            logger.warn("Quota exceeded for user {}: {} bytes", userId, bytes);
+            throw new RuntimeException("Storage quota exceeded");
+        }
+    }
+
+    /**
+     * 预留空间，超额时抛出异常。调用方在写入记录后调用 {@link Reservation#commit()}，
+     * 并始终 close()；未提交的预留在 close 时释放。
+     */
+    public Reservation reserve(Long userId, long bytes) {
+        Reservation reservation = new Reservation(userId, account(userId));
+        reservation.adjust(bytes);
+        return reservation;
+    }
+
+    /** 释放已用空间（删除文件），在当前事务提交后生效 */
+    public void release(Long userId, long bytes) {
+        Account account = account(userId);
+        afterCommit(() -> account.pending.add(-bytes));
+    }
+
+    /** 将内存中的增量写回数据库 */
+    @Scheduled(fixedDelay = 5, timeUnit = TimeUnit.SECONDS)
+    @PreDestroy
+    public void flush() {
+        accounts.forEach((userId, account) -> {
+            account.lock.lock();
+            try {
+                flushLocked(userId, account);
+            } finally {
+                account.lock.unlock();
+            }
+        });
+    }
+
+    /**
+     * 以 files 表为准重新计算各用户已用量，修正崩溃丢失的增量等偏差。
+     */
+    @Scheduled(fixedDelayString = "${quota.reconcile-interval-minutes:60}", initialDelayString = "${quota.reconcile-interval-minutes:60}",
+            timeUnit = TimeUnit.MINUTES)
+    public void reconcile() {
+        for (Quota quota : quotaRepository.findAll()) {
+            Account account = account(quota.getId());
+            account.lock.lock();
+            try {
+                flushLocked(quota.getId(), account);
+                // 账户锁挡不住提交后的回调：SUM 已包含、但仍在 pending 中的增量会在下次写回时再加一次。
+                // 以 SUM 前后两次读到的 pending 为准扣除；期间有提交（两次读数不同）时本轮跳过，下一轮再核对
+                long pendingBefore = account.pending.sum();
+                long actual = fileRepository.sumSizeByUserId(quota.getId());
+                long pendingAfter = account.pending.sum();
+                if (pendingBefore != pendingAfter) {
+                    logger.debug("Quota of user {} changed during reconcile, retrying next round", quota.getId());
+                    continue;
+                }
+                long persisted = actual - pendingAfter;
+                if (persisted != account.persistedUsed) {
+                    requiresNew.executeWithoutResult(status -> quotaRepository.setUsedSpace(quota.getId(), persisted));
+                    logger.warn("Reconciled quota for user {}: {} -> {}", quota.getId(), account.persistedUsed, persisted);
+                    account.persistedUsed = persisted;
+                }
+            } finally {
+                account.lock.unlock();
+            }
+        }
+    }
+
+    private void flushLocked(Long userId, Account account) {
+        long delta = account.pending.sum();
+        if (delta == 0) {
+            return;
+        }
+        requiresNew.executeWithoutResult(status -> quotaRepository.addUsedSpace(userId, delta));
+        // 先加到已写回量再从增量中扣除，中间状态只会高估用量
+        account.persistedUsed += delta;
+        account.pending.add(-delta);
+        logger.debug("Flushed quota delta {} for user {}", delta, userId);
+    }
+
+    /**
+     * 首次访问时从数据库加载。查询不放在 computeIfAbsent 中：映射函数在 ConcurrentHashMap 的桶锁（synchronized）
+     * 内执行，会钉住虚拟线程并阻塞同一桶的其他用户；改为在 loadLock 内双重检查，只有首次加载的线程排队。
+     */
+    private Account account(Long userId) {
+        Account account = accounts.get(userId);
+        if (account != null) {
+            return account;
+        }
+        loadLock.lock();
+        try {
+            account = accounts.get(userId);
+            if (account == null) {
+                Quota quota = requiresNew.execute(status -> quotaRepository.findById(userId).orElseGet(() -> {
+                    Quota created = new Quota();
+                    created.setId(userId);
+                    created.setTotalSpace(defaultTotalSpace);
+                    created.setUsedSpace(0L);
+                    return quotaRepository.save(created);
+                }));
+                account = new Account(quota.getTotalSpace(), quota.getUsedSpace());
+                registerGauges(userId, account);
+                accounts.put(userId, account);
+            }
+            return account;
+        } finally {
+            loadLock.unlock();
+        }
+    }
+
+    /** 每个用户的已用量、预留量与使用率，Account 常驻内存，Gauge 直接读取其中的计数 */
+    private void registerGauges(Long userId, Account account) {
+        String user = String.valueOf(userId);
+        Gauge.builder("moran.quota.used", account, a -> Math.max(0, a.used()))
+                .description("Committed storage usage, including deltas not yet flushed")
+                .baseUnit("bytes")
+                .tag("user", user)
+                .register(meterRegistry);
+        Gauge.builder("moran.quota.reserved", account, a -> a.reserved.get())
+                .description("Space reserved by in-flight uploads")
+                .baseUnit("bytes")
+                .tag("user", user)
+                .register(meterRegistry);
+        Gauge.builder("moran.quota.utilization", account, a -> a.totalSpace > 0 ? (double) Math.max(0, a.used()) / a.totalSpace : 0)
+                .description("Used space as a fraction of the quota")
+                .tag("user", user)
+                .register(meterRegistry);
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    private static class Account {
+        final long totalSpace;
+        volatile long persistedUsed;
+        final LongAdder pending = new LongAdder();
+        final AtomicLong reserved = new AtomicLong();
+        /** 串行化写回与核对 */
+        final ReentrantLock lock = new ReentrantLock();
+
+        Account(long totalSpace, long persistedUsed) {
+            this.totalSpace = totalSpace;
+            this.persistedUsed = persistedUsed;
+        }
+
+        long used() {
+            return persistedUsed + pending.sum();
+        }
+    }
+
+    /** 一次上传的预留空间 */
+    public static class Reservation implements AutoCloseable {
+        private final Long userId;
+        private final Account account;
+        private long bytes;
+        private boolean committed;
+
+        private Reservation(Long userId, Account account) {
+            this.userId = userId;
+            this.account = account;
+        }
+
+        /** 将预留调整为 newBytes；增大时做准入检查，超额抛出异常 */
+        public void adjust(long newBytes) {
+            long delta = newBytes - bytes;
+            if (delta > 0) {
+                long current;
+                do {
+                    current = account.reserved.get();
+                    if (account.used() + current + delta > account.totalSpace) {
+                        logger.warn("Quota exceeded for user {}: {} bytes", userId, newBytes);
+                        throw new RuntimeException("Storage quota exceeded");
+                    }
+                } while (!account.reserved.compareAndSet(current, current + delta));
+            } else {
+                account.reserved.addAndGet(delta);
+            }
+            bytes = newBytes;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        /** 记录已写入：当前事务提交后预留转为已用量，回滚则释放 */
+        public void commit() {
+            committed = true;
+            long amount = bytes;
+            if (TransactionSynchronizationManager.isSynchronizationActive()) {
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                    @Override
+                    public void afterCompletion(int status) {
+                        if (status == STATUS_COMMITTED) {
+                            account.pending.add(amount);
+                        }
+                        account.reserved.addAndGet(-amount);
+                    }
+                });
+            } else {
+                account.pending.add(amount);
+                account.reserved.addAndGet(-amount);
+            }
+        }
+
+        @Override
+        public void close() {
+            if (!committed) {
+                account.reserved.addAndGet(-bytes);
+                bytes = 0;
+                committed = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,460 @@
+package com.lth.moran.service;
+
+import com.lth.moran.dto.FileItem;
+import com.lth.moran.entity.MoranFile;
+import com.lth.moran.repository.MoranFileRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopFieldDocs;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * 文件名搜索索引：存储目录下 .search 中的 Lucene 索引，每个文件/文件夹一个文档。
+ * 名称按 2、3 字符切分为 n-gram 词项，子串查询是各 n-gram 倒排表的交集，前缀、扩展名、类型、
+ * 大小与上传时间都是索引内的过滤条件，不扫描 files 表。
+ * <p>
+ * 索引只决定候选 ID 与顺序，结果仍按 ID 从数据库取出：归属、是否已删除、当前路径以数据库为准，
+ * 因此移入回收站、移动文件夹等子树操作无需逐条更新索引。写入在数据库事务提交后进行，
+ * 每秒刷新一次可见性，定期提交到磁盘；启动时按 updated_at 水位重新索引上次提交之后新增或改名的记录。
+ */
+@Component
+public class SearchIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(SearchIndex.class);
+
+    private static final String INDEX_DIR = ".search";
+
+    private static final String F_ID = "id";
+    private static final String F_ID_SORT = "id_sort";
+    private static final String F_USER = "user";
+    private static final String F_NAME = "name";
+    private static final String F_NAME_SORT = "name_sort";
+    private static final String F_GRAM = "gram";
+    private static final String F_EXT = "ext";
+    private static final String F_FOLDER = "folder";
+    private static final String F_SIZE = "size";
+    private static final String F_TIME = "time";
+
+    /** 提交数据：已索引的最大文件 ID（判断数据库是否被重建）与补齐水位（此后修改过的记录启动时重新索引） */
+    private static final String MAX_ID = "maxId";
+    private static final String WATERMARK = "updatedSince";
+
+    /**
+     * 水位比提交时刻提前这么多：updated_at 在事务内写入，索引在事务提交后才写入，
+     * 长事务中修改、提交时才进入索引的记录也在补齐范围内。
+     */
+    private static final Duration WATERMARK_SLACK = Duration.ofMinutes(10);
+
+    private static final Sort BY_NAME = new Sort(new SortField(F_NAME_SORT, SortField.Type.STRING),
+            new SortField(F_ID_SORT, SortField.Type.LONG));
+
+    private static final int CATCH_UP_BATCH = 1000;
+
+    /** 命中的条目可能已删除或改名，按页取候选并过滤，最多取这么多页 */
+    private static final int MAX_PAGES = 5;
+
+    private final MoranFileRepository fileRepository;
+
+    private FSDirectory directory;
+    private IndexWriter writer;
+    private SearcherManager searcherManager;
+
+    /** 已写入索引的最大 ID */
+    private final AtomicLong indexedUpTo = new AtomicLong();
+
+    /** 上次提交的水位，null 表示还没有完整建立过索引；补齐完成前的提交沿用它，崩溃后从这里重新补齐 */
+    private volatile LocalDateTime watermark;
+    private volatile boolean caughtUp = false;
+
+    /** 定时提交、补齐完成与关闭时的提交串行执行，水位不会倒退；提交要 fsync，用 ReentrantLock 而非 synchronized */
+    private final ReentrantLock commitLock = new ReentrantLock();
+
+    @Value("${storage.path}")
+    private String storagePath;
+
+    @Value("${search.rebuild-on-start:false}")
+    private boolean rebuildOnStart;
+
+    public SearchIndex(MoranFileRepository fileRepository) {
+        this.fileRepository = fileRepository;
+    }
+
+    /**
+     * 查询条件。text 为空时只按其余条件过滤；prefix=false 时 text 按子串匹配，至少 2 个字符。
+     * 其余条件为 null 表示不限。
+     */
+    public record Criteria(String text, boolean prefix, String extension, Boolean folder,
+                           Long minSize, Long maxSize, LocalDateTime from, LocalDateTime to) {
+
+        public Criteria {
+            text = text == null || text.isBlank() ? null : text.toLowerCase(Locale.ROOT);
+            extension = extension == null || extension.isBlank() ? null
+                    : (extension.startsWith(".") ? extension.substring(1) : extension).toLowerCase(Locale.ROOT);
+        }
+
+        /** 用数据库中的当前名称复核命中（索引可能还没跟上改名） */
+        boolean matches(FileItem item) {
+            String name = item.getName().toLowerCase(Locale.ROOT);
+            if (text != null && !(prefix ? name.startsWith(text) : name.contains(text))) {
+                return false;
+            }
+            if (extension != null && (item.getIsFolder() || !extension.equals(extensionOf(name)))) {
+                return false;
+            }
+            return folder == null || folder.equals(item.getIsFolder());
+        }
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        Path dir = Paths.get(storagePath, INDEX_DIR);
+        Files.createDirectories(dir);
+        directory = FSDirectory.open(dir);
+        IndexWriterConfig config = new IndexWriterConfig();
+        config.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+        writer = new IndexWriter(directory, config);
+        if (rebuildOnStart) {
+            writer.deleteAll();
+        } else {
+            for (Map.Entry<String, String> entry : writer.getLiveCommitData()) {
+                if (MAX_ID.equals(entry.getKey())) {
+                    indexedUpTo.set(Long.parseLong(entry.getValue()));
+                } else if (WATERMARK.equals(entry.getKey())) {
+                    watermark = LocalDateTime.parse(entry.getValue());
+                }
+            }
+        }
+        searcherManager = new SearcherManager(writer, null);
+    }
+
+    @PreDestroy
+    public void stop() throws IOException {
+        if (writer == null) {
+            return;
+        }
+        commit();
+        searcherManager.close();
+        writer.close();
+        directory.close();
+    }
+
+    /**
+     * 重新索引上次提交的水位之后新增或修改（改名）过的记录，没有水位时（首次启动）全量建立。
+     * 在后台进行，期间的搜索结果可能不完整；中途崩溃时水位不变，下次启动重新补齐。
+     * 数据库中的最大 ID 比索引还小说明数据库已被重建，此时清空索引重新建立。
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void catchUp() {
+        Thread.ofVirtual().name("search-index-catch-up").start(() -> {
+            long start = System.currentTimeMillis();
+            long count = 0;
+            try {
+                LocalDateTime since = watermark;
+                if (indexedUpTo.get() > fileRepository.findMaxId().orElse(0L)) {
+                    logger.warn("Search index is ahead of the database (id {}), rebuilding", indexedUpTo.get());
+                    writer.deleteAll();
+                    indexedUpTo.set(0);
+                    since = null;
+                    watermark = null;
+                }
+                List<MoranFile> batch;
+                if (since == null) {
+                    long afterId = 0;
+                    do {
+                        batch = fileRepository.findByIdGreaterThanOrderByIdAsc(afterId, PageRequest.of(0, CATCH_UP_BATCH));
+                        for (MoranFile file : batch) {
+                            write(file);
+                            afterId = file.getId();
+                        }
+                        count += batch.size();
+                    } while (batch.size() == CATCH_UP_BATCH);
+                } else {
+                    LocalDateTime afterTime = since;
+                    long afterId = 0;
+                    do {
+                        batch = fileRepository.findUpdatedSince(afterTime, afterId, PageRequest.of(0, CATCH_UP_BATCH));
+                        for (MoranFile file : batch) {
+                            write(file);
+                            afterTime = file.getUpdatedAt();
+                            afterId = file.getId();
+                        }
+                        count += batch.size();
+                    } while (batch.size() == CATCH_UP_BATCH);
+                }
+                caughtUp = true;
+                commit();
+                logger.info("Search index caught up: {} entries since {} in {} ms", count,
+                        since == null ? "the beginning" : since, System.currentTimeMillis() - start);
+            } catch (Exception e) {
+                logger.error("Search index catch-up stopped after {} entries: {}", count, e.getMessage());
+            }
+        });
+    }
+
+    private void write(MoranFile file) throws IOException {
+        writer.updateDocument(new Term(F_ID, file.getId().toString()), toDocument(file));
+        indexedUpTo.accumulateAndGet(file.getId(), Math::max);
+    }
+
+    /** 新建或改名后（重新）索引，当前事务提交后生效 */
+    public void index(MoranFile file) {
+        Term id = new Term(F_ID, file.getId().toString());
+        Document document = toDocument(file);
+        long fileId = file.getId();
+        afterCommit(() -> {
+            writer.updateDocument(id, document);
+            indexedUpTo.accumulateAndGet(fileId, Math::max);
+        });
+    }
+
+    /** 记录已彻底删除，当前事务提交后生效 */
+    public void remove(Collection<Long> ids) {
+        Term[] terms = ids.stream().map(id -> new Term(F_ID, id.toString())).toArray(Term[]::new);
+        afterCommit(() -> writer.deleteDocuments(terms));
+    }
+
+    /**
+     * 按名称升序返回 userId 的前 limit 条命中，已删除、已不属于该用户或名称已不匹配的候选被丢弃。
+     */
+    public List<FileItem> search(Long userId, Criteria criteria, int limit) {
+        Query query = toQuery(userId, criteria);
+        List<FileItem> results = new ArrayList<>();
+        IndexSearcher searcher;
+        try {
+            searcher = searcherManager.acquire();
+        } catch (IOException e) {
+            throw new RuntimeException("Search unavailable", e);
+        }
+        try {
+            StoredFields storedFields = searcher.storedFields();
+            ScoreDoc after = null;
+            for (int page = 0; page < MAX_PAGES && results.size() < limit; page++) {
+                TopFieldDocs hits = searcher.searchAfter(after, query, Math.max(limit * 2, 50), BY_NAME);
+                if (hits.scoreDocs.length == 0) {
+                    break;
+                }
+                List<Long> ids = new ArrayList<>(hits.scoreDocs.length);
+                for (ScoreDoc hit : hits.scoreDocs) {
+                    ids.add(Long.parseLong(storedFields.document(hit.doc).get(F_ID)));
+                }
+                Map<Long, FileItem> live = fileRepository.findItemsByIds(userId, ids).stream()
+                        .collect(Collectors.toMap(FileItem::getId, Function.identity()));
+                for (Long id : ids) {  // 保持索引中的顺序
+                    FileItem item = live.get(id);
+                    if (item != null && criteria.matches(item) && results.size() < limit) {
+                        results.add(item);
+                    }
+                }
+                after = hits.scoreDocs[hits.scoreDocs.length - 1];
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Search failed", e);
+        } finally {
+            try {
+                searcherManager.release(searcher);
+            } catch (IOException e) {
+                logger.warn("Failed to release searcher: {}", e.getMessage());
+            }
+        }
+        return results;
+    }
+
+    /** 让最近的写入对搜索可见 */
+    @Scheduled(fixedDelayString = "${search.refresh-interval-ms:1000}")
+    public void refresh() {
+        try {
+            searcherManager.maybeRefresh();
+        } catch (IOException e) {
+            logger.error("Failed to refresh search index: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 持久化到磁盘。补齐完成后水位取提交时刻减去 WATERMARK_SLACK：此前修改的记录都已写入索引，
+     * 崩溃后只需重新索引水位之后修改过的记录。
+     */
+    @Scheduled(fixedDelayString = "${search.commit-interval-seconds:60}", timeUnit = TimeUnit.SECONDS)
+    public void commit() {
+        commitLock.lock();
+        try {
+            if (!writer.hasUncommittedChanges()) {
+                return;
+            }
+            LocalDateTime mark = caughtUp ? LocalDateTime.now().minus(WATERMARK_SLACK) : watermark;
+            Map<String, String> data = new HashMap<>();
+            data.put(MAX_ID, Long.toString(indexedUpTo.get()));
+            if (mark != null) {
+                data.put(WATERMARK, mark.toString());
+            }
+            writer.setLiveCommitData(data.entrySet());
+            writer.commit();
+            watermark = mark;
+        } catch (IOException e) {
+            logger.error("Failed to commit search index: {}", e.getMessage());
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    private static Query toQuery(Long userId, Criteria criteria) {
+        BooleanQuery.Builder query = new BooleanQuery.Builder()
+                .add(new TermQuery(new Term(F_USER, userId.toString())), BooleanClause.Occur.FILTER);
+        String text = criteria.text();
+        if (text != null) {
+            if (criteria.prefix()) {
+                query.add(new PrefixQuery(new Term(F_NAME, text)), BooleanClause.Occur.FILTER);
+            } else {
+                int[] codePoints = text.codePoints().toArray();
+                if (codePoints.length < 2) {
+                    throw new RuntimeException("Search text too short");
+                }
+                // 2 个字符直接查 2-gram，更长的查所有 3-gram 的交集
+                for (String gram : grams(codePoints, codePoints.length == 2 ? 2 : 3)) {
+                    query.add(new TermQuery(new Term(F_GRAM, gram)), BooleanClause.Occur.FILTER);
+                }
+            }
+        }
+        if (criteria.extension() != null) {
+            query.add(new TermQuery(new Term(F_EXT, criteria.extension())), BooleanClause.Occur.FILTER);
+        }
+        if (criteria.folder() != null) {
+            query.add(new TermQuery(new Term(F_FOLDER, criteria.folder().toString())), BooleanClause.Occur.FILTER);
+        }
+        if (criteria.minSize() != null || criteria.maxSize() != null) {
+            query.add(LongPoint.newRangeQuery(F_SIZE,
+                    criteria.minSize() != null ? criteria.minSize() : Long.MIN_VALUE,
+                    criteria.maxSize() != null ? criteria.maxSize() : Long.MAX_VALUE), BooleanClause.Occur.FILTER);
+        }
+        if (criteria.from() != null || criteria.to() != null) {
+            query.add(LongPoint.newRangeQuery(F_TIME,
+                    criteria.from() != null ? epochMillis(criteria.from()) : Long.MIN_VALUE,
+                    criteria.to() != null ? epochMillis(criteria.to()) : Long.MAX_VALUE), BooleanClause.Occur.FILTER);
+        }
+        return query.build();
+    }
+
+    private static Document toDocument(MoranFile file) {
+        String name = file.getName().toLowerCase(Locale.ROOT);
+        boolean isFolder = file.getIsFolder() != null && file.getIsFolder();
+        Document document = new Document();
+        document.add(new StringField(F_ID, file.getId().toString(), Field.Store.YES));
+        document.add(new NumericDocValuesField(F_ID_SORT, file.getId()));
+        document.add(new StringField(F_USER, file.getUser().getId().toString(), Field.Store.NO));
+        document.add(new StringField(F_NAME, name, Field.Store.NO));
+        document.add(new SortedDocValuesField(F_NAME_SORT, new BytesRef(name)));
+        int[] codePoints = name.codePoints().toArray();
+        Set<String> grams = grams(codePoints, 2);
+        grams.addAll(grams(codePoints, 3));
+        for (String gram : grams) {
+            document.add(new StringField(F_GRAM, gram, Field.Store.NO));
+        }
+        String extension = extensionOf(name);
+        if (!isFolder && extension != null) {
+            document.add(new StringField(F_EXT, extension, Field.Store.NO));
+        }
+        document.add(new StringField(F_FOLDER, Boolean.toString(isFolder), Field.Store.NO));
+        if (file.getSize() != null) {
+            document.add(new LongPoint(F_SIZE, file.getSize()));
+        }
+        if (file.getUploadTime() != null) {
+            document.add(new LongPoint(F_TIME, epochMillis(file.getUploadTime())));
+        }
+        return document;
+    }
+
+    /** 按码点切分，中文等非 ASCII 名称同样适用 */
+    private static Set<String> grams(int[] codePoints, int length) {
+        Set<String> grams = new LinkedHashSet<>();
+        for (int i = 0; i + length <= codePoints.length; i++) {
+            grams.add(new String(codePoints, i, length));
+        }
+        return grams;
+    }
+
+    private static String extensionOf(String name) {
+        int dotIndex = name.lastIndexOf('.');
+        return dotIndex > 0 && dotIndex < name.length() - 1 ? name.substring(dotIndex + 1) : null;
+    }
+
+    private static long epochMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    @FunctionalInterface
+    private interface IndexAction {
+        void run() throws IOException;
+    }
+
+    /** 索引写入失败只记录日志：结果总会经数据库复核，最坏情况是漏掉命中，重启时可重建 */
+    private static void afterCommit(IndexAction action) {
+        Runnable guarded = () -> {
+            try {
+                action.run();
+            } catch (IOException | RuntimeException e) {
+                logger.error("Failed to update search index: {}", e.getMessage());
+            }
+        };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    guarded.run();
+                }
+            });
+        } else {
+            guarded.run();
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package com.lth.moran.service;
+
+import com.lth.moran.entity.MoranFile;
+import com.lth.moran.util.StorageMetrics;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 图片预览缩略图：首次请求时在有界线程池中生成 JPEG，缓存在 {storage.path}/.thumbs/{size}/ab/{sha256}.jpg。
+ * 以内容 hash 为键，内容相同的文件共用缩略图；同一缩略图的并发请求只渲染一次。
+ */
+@Service
+public class ThumbnailService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ThumbnailService.class);
+
+    /** 支持的长边像素 */
+    public static final List<Integer> SIZES = List.of(256, 1024, 2048);
+
+    private static final String THUMB_DIR = ".thumbs";
+    private static final float JPEG_QUALITY = 0.85f;
+    private static final long RENDER_TIMEOUT_SECONDS = 30;
+
+    private final ThreadPoolExecutor executor;
+    private final StorageMetrics metrics;
+
+    /** 正在生成的缩略图，key 为 size/hash */
+    private final ConcurrentHashMap<String, CompletableFuture<Path>> inFlight = new ConcurrentHashMap<>();
+
+    @Value("${storage.path}")
+    private String storagePath;
+
+    public ThumbnailService(@Value("${thumbnail.threads:2}") int threads,
+                            @Value("${thumbnail.queue-capacity:64}") int queueCapacity,
+                            StorageMetrics metrics) {
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "thumbnail-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.metrics = metrics;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 返回 file 在 size 尺寸下的缩略图；不是可解码的图片、或原图本身不大于该尺寸时返回 null，调用方应直接输出原文件。
+     */
+    public Path getThumbnail(MoranFile file, Path source, int size) throws IOException {
+        if (!SIZES.contains(size)) {
+            throw new RuntimeException("Unsupported preview size: " + size + ", expected one of " + SIZES);
+        }
+        if (file.getSha256() == null || file.getMimeType() == null || !file.getMimeType().startsWith("image/")) {
+            return null;
+        }
+        Path target = resolve(file.getSha256(), size);
+        if (metrics.exists(target)) {
+            return target;
+        }
+
+        String key = size + "/" + file.getSha256();
+        CompletableFuture<Path> future = inFlight.computeIfAbsent(key, k -> {
+            try {
+                return CompletableFuture.supplyAsync(() -> timedRender(source, target, size), executor);
+            } catch (RejectedExecutionException e) {
+                return CompletableFuture.failedFuture(new RuntimeException("Thumbnail service busy, try again later"));
+            }
+        });
+        // 不能在 computeIfAbsent 内注册：已完成的 future 会立即回调并递归修改 map
+        future.whenComplete((result, error) -> inFlight.remove(key, future));
+        try {
+            return future.get(RENDER_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Thumbnail rendering interrupted");
+        } catch (TimeoutException e) {
+            throw new RuntimeException("Thumbnail rendering timed out");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() instanceof CompletionException ? e.getCause().getCause() : e.getCause();
+            if (cause instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new IOException("Thumbnail rendering failed", cause);
+        }
+    }
+
+    /** Blob 被回收后删除其缩略图 */
+    @EventListener
+    public void onBlobPurged(BlobStore.BlobPurgedEvent event) {
+        for (int size : SIZES) {
+            try {
+                Files.deleteIfExists(resolve(event.hash(), size));
+            } catch (IOException e) {
+                logger.warn("Failed to delete thumbnail {}/{}: {}", size, event.hash(), e.getMessage());
+            }
+        }
+    }
+
+    /** 记录渲染耗时：rendered / skipped（无需缩略图）/ failed */
+    private Path timedRender(Path source, Path target, int size) {
+        long start = System.nanoTime();
+        String result = "failed";
+        try {
+            Path rendered = render(source, target, size);
+            result = rendered != null ? "rendered" : "skipped";
+            return rendered;
+        } finally {
+            metrics.recordJob("thumbnail", result, System.nanoTime() - start);
+        }
+    }
+
+    private Path render(Path source, Path target, int size) {
+        long start = System.currentTimeMillis();
+        try (ImageInputStream input = ImageIO.createImageInputStream(source.toFile())) {
+            Iterator<ImageReader> readers = input == null ? null : ImageIO.getImageReaders(input);
+            if (readers == null || !readers.hasNext()) {
+                return null;  // ImageIO 无法解码（如 WebP、HEIC）
+            }
+            ImageReader reader = readers.next();
+            BufferedImage image;
+            try {
+                reader.setInput(input, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                if (Math.max(width, height) <= size) {
+                    return null;  // 原图已经足够小
+                }
+                // 按整数倍降采样解码，避免把数千万像素的原图完整读入内存，保留至少 2 倍目标尺寸供平滑缩放
+                ImageReadParam param = reader.getDefaultReadParam();
+                int subsampling = Math.max(1, Math.max(width, height) / (size * 2));
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                image = reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+
+            BufferedImage scaled = scale(image, size);
+            Files.createDirectories(target.getParent());
+            Path temp = target.resolveSibling(target.getFileName() + "." + UUID.randomUUID() + ".tmp");
+            writeJpeg(scaled, temp);
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            logger.debug("Rendered {}px thumbnail {} in {} ms", size, target.getFileName(), System.currentTimeMillis() - start);
+            return target;
+        } catch (IOException e) {
+            throw new CompletionException(new IOException("Failed to render thumbnail: " + e.getMessage(), e));
+        }
+    }
+
+    private static BufferedImage scale(BufferedImage image, int size) {
+        double ratio = (double) size / Math.max(image.getWidth(), image.getHeight());
+        int width = Math.max(1, (int) Math.round(image.getWidth() * ratio));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * ratio));
+        // JPEG 不支持透明通道，铺白底
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = scaled.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, width, height);
+            g.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        return scaled;
+    }
+
+    private static void writeJpeg(BufferedImage image, Path target) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(target.toFile())) {
+            writer.setOutput(output);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(JPEG_QUALITY);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    private Path resolve(String hash, int size) {
+        return Paths.get(storagePath, THUMB_DIR, String.valueOf(size), hash.substring(0, 2), hash + ".jpg");
+    }
+}
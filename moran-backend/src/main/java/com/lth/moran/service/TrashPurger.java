@@ -0,0 +1,122 @@
+package com.lth.moran.service;
+
+import com.lth.moran.entity.MoranFile;
+import com.lth.moran.repository.MoranFileRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 回收站后台清理：超过保留期的条目分批释放 Blob 引用与配额并删除记录。
+ * 每批一个独立事务，批间暂停，单次运行的批数有上限，清理再大的文件夹也不会长时间占用数据库与磁盘。
+ */
+@Service
+public class TrashPurger {
+
+    private static final Logger logger = LoggerFactory.getLogger(TrashPurger.class);
+
+    /** 立即清理的条目把删除时间改到这里，下一轮即被处理 */
+    static final LocalDateTime EXPIRED = LocalDateTime.of(1970, 1, 1, 0, 0);
+
+    private final MoranFileRepository fileRepository;
+    private final BlobStore blobStore;
+    private final QuotaService quotaService;
+    private final SearchIndex searchIndex;
+    private final TransactionTemplate requiresNew;
+
+    /** 上一轮还没结束时跳过本轮 */
+    private final ReentrantLock running = new ReentrantLock();
+
+    @Value("${trash.retention-days:30}")
+    private long retentionDays;
+
+    @Value("${trash.purge-batch-size:500}")
+    private int batchSize;
+
+    @Value("${trash.purge-max-batches:20}")
+    private int maxBatches;
+
+    @Value("${trash.purge-pause-ms:100}")
+    private long pauseMillis;
+
+    public TrashPurger(MoranFileRepository fileRepository, BlobStore blobStore, QuotaService quotaService,
+                       SearchIndex searchIndex, PlatformTransactionManager transactionManager) {
+        this.fileRepository = fileRepository;
+        this.blobStore = blobStore;
+        this.quotaService = quotaService;
+        this.searchIndex = searchIndex;
+        this.requiresNew = new TransactionTemplate(transactionManager);
+        this.requiresNew.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    /** 删除时间早于该时刻的条目已过保留期，不能再恢复 */
+    public LocalDateTime retentionCutoff() {
+        return LocalDateTime.now().minusDays(retentionDays);
+    }
+
+    @Scheduled(fixedDelayString = "${trash.purge-interval-seconds:60}", timeUnit = TimeUnit.SECONDS)
+    public void purgeExpired() {
+        if (!running.tryLock()) {
+            return;
+        }
+        try {
+            LocalDateTime cutoff = retentionCutoff();
+            long purged = 0;
+            for (int i = 0; i < maxBatches; i++) {
+                Integer count = requiresNew.execute(status -> purgeBatch(cutoff));
+                if (count == null || count == 0) {
+                    break;
+                }
+                purged += count;
+                if (count < batchSize) {
+                    break;
+                }
+                try {
+                    Thread.sleep(pauseMillis);  // 让出数据库与磁盘给前台请求
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            if (purged > 0) {
+                logger.info("Purged {} recycle bin entries", purged);
+            }
+        } finally {
+            running.unlock();
+        }
+    }
+
+    /** 一批：释放 Blob 引用（引用归零的内容在提交后删除）、按用户释放配额、一条语句删除记录并移出搜索索引 */
+    private int purgeBatch(LocalDateTime cutoff) {
+        List<MoranFile> batch = fileRepository.findByTrashRootIdIsNotNullAndDeletedAtBefore(cutoff,
+                PageRequest.of(0, batchSize));
+        Map<Long, Long> bytesByUser = new HashMap<>();
+        for (MoranFile file : batch) {
+            if (file.getSha256() != null) {
+                blobStore.release(file.getSha256());
+            }
+            if (!file.getIsFolder() && file.getSize() != null) {
+                bytesByUser.merge(file.getUser().getId(), file.getSize(), Long::sum);
+            }
+        }
+        bytesByUser.forEach(quotaService::release);
+        List<Long> ids = batch.stream().map(MoranFile::getId).toList();
+        fileRepository.deleteAllByIdInBatch(ids);
+        searchIndex.remove(ids);
+        logger.debug("Purged batch of {} recycle bin entries", batch.size());
+        return batch.size();
+    }
+}
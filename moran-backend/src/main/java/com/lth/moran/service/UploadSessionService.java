@@ -0,0 +1,339 @@
+package com.lth.moran.service;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lth.moran.entity.MoranFile;
+import com.lth.moran.entity.User;
+import com.lth.moran.util.StorageMetrics;
+import lombok.Data;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 可续传的分片上传会话：init -> 按偏移量 PUT 分片（可并行、乱序）-> commit。
+ * 分片通过 FileChannel 定位写入预分配的 .part 文件，会话状态以 JSON 存放在存储目录下，服务重启后可继续；
+ * 只有 commit 时才创建 MoranFile 记录并计入配额。
+ */
+@Service
+public class UploadSessionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(UploadSessionService.class);
+
+    private static final String SESSION_DIR = ".upload-sessions";
+    private static final long MAX_CHUNK_SIZE = 64L * 1024 * 1024;
+
+    private final FileService fileService;
+    private final BlobStore blobStore;
+    private final QuotaService quotaService;
+    private final ObjectMapper objectMapper;
+    private final StorageMetrics metrics;
+
+    /** 已加载的会话；未命中时从磁盘恢复 */
+    private final ConcurrentHashMap<String, UploadSession> sessions = new ConcurrentHashMap<>();
+
+    @Value("${storage.path}")
+    private String storagePath;
+
+    @Value("${upload.chunk-size:8388608}")
+    private long defaultChunkSize;
+
+    @Value("${upload.session-ttl-hours:24}")
+    private long sessionTtlHours;
+
+    public UploadSessionService(FileService fileService, BlobStore blobStore, QuotaService quotaService,
+                                ObjectMapper objectMapper, StorageMetrics metrics) {
+        this.fileService = fileService;
+        this.blobStore = blobStore;
+        this.quotaService = quotaService;
+        this.objectMapper = objectMapper;
+        this.metrics = metrics;
+    }
+
+    private User getCurrentUser() {
+        try {
+            return (User) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+        } catch (Exception e) {
+            logger.error("Failed to get current user", e);
+            throw new RuntimeException("Unauthorized access");
+        }
+    }
+
+    public UploadSession createSession(String fileName, Long parentId, long size, String mimeType, Long chunkSize) throws IOException {
+        if (fileName == null || fileName.trim().isEmpty()) {
+            throw new RuntimeException("Invalid filename");
+        }
+        if (size < 0) {
+            throw new RuntimeException("Invalid file size");
+        }
+        long effectiveChunkSize = chunkSize != null ? chunkSize : defaultChunkSize;
+        if (effectiveChunkSize <= 0 || effectiveChunkSize > MAX_CHUNK_SIZE) {
+            throw new RuntimeException("Invalid chunk size");
+        }
+        quotaService.check(getCurrentUser().getId(), size);  // 提前拒绝，commit 时再正式预留
+
+        UploadSession session = new UploadSession();
+        session.setId(UUID.randomUUID().toString());
+        session.setUserId(getCurrentUser().getId());
+        session.setParentId(parentId);
+        session.setFileName(fileName);
+        session.setMimeType(mimeType);
+        session.setSize(size);
+        session.setChunkSize(effectiveChunkSize);
+        session.setReceived(new long[0]);
+        session.setCreatedAt(System.currentTimeMillis());
+        session.setUpdatedAt(session.getCreatedAt());
+
+        Files.createDirectories(getSessionDir());
+        // 预分配目标大小，后续各分片按偏移量直接写入
+        try (RandomAccessFile raf = new RandomAccessFile(getPartFile(session.getId()).toFile(), "rw")) {
+            raf.setLength(size);
+        }
+        persist(session);
+        sessions.put(session.getId(), session);
+        logger.info("Created upload session {} for {} ({} bytes, {} chunks)",
+                session.getId(), fileName, size, session.getTotalChunks());
+        return session;
+    }
+
+    public UploadSession getSession(String sessionId) {
+        UploadSession session = cached(sessionId);
+        if (session == null) {
+            throw new RuntimeException("Upload session not found: " + sessionId);
+        }
+        if (!session.getUserId().equals(getCurrentUser().getId())) {
+            logger.warn("Unauthorized access to upload session {}", sessionId);
+            throw new RuntimeException("Unauthorized access to upload session");
+        }
+        return session;
+    }
+
+    /**
+     * 将请求体写入会话文件的指定偏移量。偏移量必须对齐分片边界，且长度必须等于该分片的长度。
+     * 重复上传同一分片是幂等的。
+     */
+    public UploadSession writeChunk(String sessionId, long offset, InputStream input) throws IOException {
+        UploadSession session = getSession(sessionId);
+        if (offset < 0 || offset % session.getChunkSize() != 0 || (offset >= session.getSize() && session.getSize() > 0)) {
+            throw new RuntimeException("Invalid chunk offset: " + offset);
+        }
+        int index = (int) (offset / session.getChunkSize());
+        long expected = Math.min(session.getChunkSize(), session.getSize() - offset);
+
+        long written = 0;
+        long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(getPartFile(sessionId), StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            byte[] array = buffer.array();
+            int read;
+            while ((read = input.read(array, 0, (int) Math.min(array.length, expected - written + 1))) != -1) {
+                if (written + read > expected) {
+                    throw new RuntimeException("Chunk exceeds expected length " + expected);
+                }
+                buffer.limit(read).position(0);
+                long position = offset + written;
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);  // 定位写，多个分片可并发写同一文件
+                }
+                written += read;
+                buffer.clear();
+            }
+        } catch (NoSuchFileException e) {
+            throw new RuntimeException("Upload session data missing: " + sessionId, e);
+        }
+        if (written != expected) {
+            throw new RuntimeException("Incomplete chunk: expected " + expected + " bytes, got " + written);
+        }
+        metrics.recordUpload(written, System.nanoTime() - start);
+
+        session.getLock().lock();
+        try {
+            BitSet received = BitSet.valueOf(session.getReceived());
+            received.set(index);
+            session.setReceived(received.toLongArray());
+            session.setUpdatedAt(System.currentTimeMillis());
+            persist(session);
+        } finally {
+            session.getLock().unlock();
+        }
+        logger.debug("Session {} received chunk {} ({} bytes)", sessionId, index, written);
+        return session;
+    }
+
+    public MoranFile commit(String sessionId) throws IOException {
+        UploadSession session = getSession(sessionId);
+        session.getLock().lock();
+        try {
+            List<Integer> missing = session.getMissingChunks();
+            if (!missing.isEmpty()) {
+                throw new RuntimeException("Upload incomplete, missing " + missing.size() + " chunks");
+            }
+            // 入库的是 .part 的硬链接：提交失败（含事务回滚后撤销入库）时 .part 仍在，会话可以重新提交
+            Path staged = blobStore.stage(getPartFile(sessionId));
+            MoranFile saved;
+            try {
+                saved = fileService.storeFile(staged, session.getFileName(), session.getSize(),
+                        session.getMimeType(), null, session.getParentId());  // hash 在入库时计算
+            } finally {
+                Files.deleteIfExists(staged);  // 成功时已被移走
+            }
+            remove(sessionId);
+            logger.info("Committed upload session {} as file {}", sessionId, saved.getId());
+            return saved;
+        } finally {
+            session.getLock().unlock();
+        }
+    }
+
+    public void abort(String sessionId) throws IOException {
+        getSession(sessionId);  // Ownership check
+        remove(sessionId);
+        logger.info("Aborted upload session {}", sessionId);
+    }
+
+    /** 清理长时间无进展的会话 */
+    @Scheduled(fixedDelay = 1, timeUnit = TimeUnit.HOURS)
+    public void purgeExpiredSessions() {
+        Path dir = getSessionDir();
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+        long deadline = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(sessionTtlHours);
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*.json")) {
+            for (Path file : stream) {
+                String sessionId = file.getFileName().toString().replace(".json", "");
+                UploadSession session = cached(sessionId);
+                if (session != null && session.getUpdatedAt() < deadline) {
+                    remove(sessionId);
+                    logger.info("Purged expired upload session {}", sessionId);
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Failed to purge expired upload sessions: {}", e.getMessage());
+        }
+    }
+
+    private void remove(String sessionId) throws IOException {
+        sessions.remove(sessionId);
+        Files.deleteIfExists(getPartFile(sessionId));
+        Files.deleteIfExists(getStateFile(sessionId));
+    }
+
+    /** 先写临时文件再原子替换，避免崩溃时留下半截 JSON */
+    private void persist(UploadSession session) throws IOException {
+        Path state = getStateFile(session.getId());
+        Path temp = state.resolveSibling(state.getFileName() + ".tmp");
+        objectMapper.writeValue(temp.toFile(), session);
+        try {
+            Files.move(temp, state, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, state, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * 已加载的会话，未命中时从磁盘恢复。读文件不放在 computeIfAbsent 中（映射函数在桶锁内执行，会钉住虚拟线程）；
+     * 并发恢复同一会话时以先放入的为准，保证每个会话只有一把锁。
+     */
+    private UploadSession cached(String sessionId) {
+        UploadSession session = sessions.get(sessionId);
+        if (session != null) {
+            return session;
+        }
+        session = load(sessionId);
+        if (session == null) {
+            return null;
+        }
+        UploadSession existing = sessions.putIfAbsent(sessionId, session);
+        return existing != null ? existing : session;
+    }
+
+    private UploadSession load(String sessionId) {
+        Path state = getStateFile(sessionId);
+        if (!Files.exists(state)) {
+            return null;
+        }
+        try {
+            return objectMapper.readValue(state.toFile(), UploadSession.class);
+        } catch (IOException e) {
+            logger.error("Failed to load upload session {}: {}", sessionId, e.getMessage());
+            return null;
+        }
+    }
+
+    private Path getSessionDir() {
+        return Paths.get(storagePath, SESSION_DIR);
+    }
+
+    private Path getStateFile(String sessionId) {
+        return getSessionDir().resolve(validateId(sessionId) + ".json");
+    }
+
+    private Path getPartFile(String sessionId) {
+        return getSessionDir().resolve(validateId(sessionId) + ".part");
+    }
+
+    /** 会话 ID 会拼进文件路径，只接受 UUID */
+    private String validateId(String sessionId) {
+        try {
+            return UUID.fromString(sessionId).toString();
+        } catch (IllegalArgumentException e) {
+            throw new RuntimeException("Invalid upload session id");
+        }
+    }
+
+    @Data
+    public static class UploadSession {
+        private String id;
+        private Long userId;
+        private Long parentId;
+        private String fileName;
+        private String mimeType;
+        private long size;
+        private long chunkSize;
+        private long[] received;  // BitSet of received chunk indexes
+        private long createdAt;
+        private long updatedAt;
+
+        /** 串行化同一会话的状态更新与提交（提交时要哈希整个文件，耗时较长） */
+        @JsonIgnore
+        private final transient ReentrantLock lock = new ReentrantLock();
+
+        public int getTotalChunks() {
+            return size == 0 ? 0 : (int) ((size + chunkSize - 1) / chunkSize);
+        }
+
+        public List<Integer> getMissingChunks() {
+            BitSet bits = BitSet.valueOf(received);
+            List<Integer> missing = new ArrayList<>();
+            for (int i = bits.nextClearBit(0); i < getTotalChunks(); i = bits.nextClearBit(i + 1)) {
+                missing.add(i);
+            }
+            return missing;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.lth.moran.util;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+/**
+ * 从磁盘流式输出文件内容，不在堆上缓冲整个文件。
+ * 支持单区间 Range 请求（206 Partial Content），Tomcat 可用时走 sendfile 零拷贝，
+ * 否则退化为 FileChannel.transferTo。配合 {@link #checkNotModified} 支持条件请求与 If-Range。
+ */
+@Component
+public class FileStreamer {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileStreamer.class);
+
+    /** Tomcat sendfile 请求属性（见 org.apache.catalina.Globals） */
+    private static final String SENDFILE_SUPPORTED_ATTR = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+
+    /** 小于该值时直接 transferTo，sendfile 的额外开销不划算（与 Tomcat 默认 sendfileSize 一致） */
+    private static final long SENDFILE_MIN_SIZE = 48 * 1024;
+
+    /** 文件内容按 id 不可变，允许浏览器长期缓存（仅私有缓存，响应依赖登录用户） */
+    private static final String IMMUTABLE_CACHE_CONTROL = "private, max-age=31536000, immutable";
+
+    /** 同时进行的 ZIP / 导出流 */
+    private final Semaphore streamPermits;
+
+    private final StorageMetrics metrics;
+
+    public FileStreamer(@Value("${download.max-concurrent-streams:128}") int maxConcurrentStreams,
+                        StorageMetrics metrics) {
+        this.streamPermits = new Semaphore(maxConcurrentStreams);
+        this.metrics = metrics;
+    }
+
+    /**
+     * 设置 ETag、Last-Modified 与 Cache-Control；If-None-Match / If-Modified-Since 命中时直接返回 304，
+     * 调用方无需再打开文件。
+     *
+     * @param etag         强校验值，不含引号
+     * @param lastModified 毫秒时间戳
+     * @return true 表示已响应 304
+     */
+    public boolean checkNotModified(HttpServletRequest request, HttpServletResponse response,
+                                    String etag, long lastModified) {
+        // 必须在响应提交前设置，Spring Security 看到已有 Cache-Control 就不再写 no-cache
+        response.setHeader(HttpHeaders.CACHE_CONTROL, IMMUTABLE_CACHE_CONTROL);
+        boolean notModified = new ServletWebRequest(request, response).checkNotModified("\"" + etag + "\"", lastModified);
+        if (notModified) {
+            logger.debug("Not modified: {}", etag);
+        }
+        return notModified;
+    }
+
+    /**
+     * 限制同时进行的 ZIP、导出等边生成边输出的响应，超出时排队等待。
+     * Java 21 上 Tomcat 的阻塞写在 synchronized 内 Object.wait，会钉住虚拟线程的载体线程，JDK 最多补偿到
+     * 256 个载体；慢速客户端超过这个数时所有虚拟线程（包括列表等快速请求）都会停住。
+     */
+    public StreamingResponseBody limit(StreamingResponseBody body) {
+        return outputStream -> {
+            try {
+                streamPermits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for a stream slot");
+            }
+            try {
+                body.writeTo(outputStream);
+            } finally {
+                streamPermits.release();
+            }
+        };
+    }
+
+    public void send(HttpServletRequest request, HttpServletResponse response, Path path,
+                     String contentType, ContentDisposition disposition) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long length = channel.size();
+            long start = 0;
+            long end = length - 1;
+
+            response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+            response.setContentType(contentType != null ? contentType : MediaType.APPLICATION_OCTET_STREAM_VALUE);
+            if (disposition != null) {
+                response.setHeader(HttpHeaders.CONTENT_DISPOSITION, disposition.toString());
+            }
+
+            String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+            if (rangeHeader != null && ifRangeMatches(request, response)) {
+                List<HttpRange> ranges;
+                try {
+                    ranges = HttpRange.parseRanges(rangeHeader);
+                } catch (IllegalArgumentException e) {
+                    ranges = List.of();
+                }
+                // 多区间（multipart/byteranges）很少使用，按 RFC 7233 允许忽略 Range 返回完整内容
+                if (ranges.size() == 1) {
+                    start = ranges.get(0).getRangeStart(length);
+                    end = ranges.get(0).getRangeEnd(length);
+                    if (start >= length || start > end) {
+                        logger.debug("Unsatisfiable range {} for {} bytes", rangeHeader, length);
+                        response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                        response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                        response.setContentLength(0);
+                        return;
+                    }
+                    response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                    response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+                }
+            }
+
+            long count = length == 0 ? 0 : end - start + 1;
+            response.setContentLengthLong(count);
+            if ("HEAD".equalsIgnoreCase(request.getMethod()) || count == 0) {
+                return;
+            }
+
+            if (count >= SENDFILE_MIN_SIZE && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED_ATTR))) {
+                // 交给连接器在响应提交后通过 sendfile 发送，数据不经过 JVM
+                request.setAttribute(SENDFILE_FILENAME_ATTR, path.toAbsolutePath().toString());
+                request.setAttribute(SENDFILE_START_ATTR, start);
+                request.setAttribute(SENDFILE_END_ATTR, end + 1);
+                metrics.recordDownload(count, -1);
+                return;
+            }
+
+            long began = System.nanoTime();
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            long position = start;
+            long remaining = count;
+            while (remaining > 0) {
+                long sent = channel.transferTo(position, remaining, out);
+                if (sent <= 0) {
+                    break;
+                }
+                position += sent;
+                remaining -= sent;
+            }
+            response.flushBuffer();
+            metrics.recordDownload(count - remaining, System.nanoTime() - began);
+        }
+    }
+
+    /**
+     * If-Range：客户端缓存的版本与当前一致时才按 Range 返回部分内容，否则返回完整内容。
+     * 校验值与本响应的 ETag / Last-Modified 逐字比较（客户端原样回传），弱 ETag 永不匹配。
+     */
+    private static boolean ifRangeMatches(HttpServletRequest request, HttpServletResponse response) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("W/")) {
+            return false;
+        }
+        String validator = ifRange.startsWith("\"")
+                ? response.getHeader(HttpHeaders.ETAG)
+                : response.getHeader(HttpHeaders.LAST_MODIFIED);
+        return ifRange.equals(validator);
+    }
+}
@@ -0,0 +1,44 @@
+package com.lth.moran.util;
+
+import org.hibernate.BaseSessionEventListener;
+
+/**
+ * 把每个 Session 上的 JDBC 执行与获取连接的耗时计入 {@link RequestTiming}。
+ * 由 Hibernate 为每个 Session 按类名创建一个实例（hibernate.session.events.auto），Session 不跨线程使用。
+ */
+public class JdbcTimingListener extends BaseSessionEventListener {
+
+    private long statementStart;
+    private long batchStart;
+    private long acquisitionStart;
+
+    @Override
+    public void jdbcConnectionAcquisitionStart() {
+        acquisitionStart = System.nanoTime();
+    }
+
+    @Override
+    public void jdbcConnectionAcquisitionEnd() {
+        RequestTiming.addDb(System.nanoTime() - acquisitionStart, false);  // 连接池排队也算数据库时间
+    }
+
+    @Override
+    public void jdbcExecuteStatementStart() {
+        statementStart = System.nanoTime();
+    }
+
+    @Override
+    public void jdbcExecuteStatementEnd() {
+        RequestTiming.addDb(System.nanoTime() - statementStart, true);
+    }
+
+    @Override
+    public void jdbcExecuteBatchStart() {
+        batchStart = System.nanoTime();
+    }
+
+    @Override
+    public void jdbcExecuteBatchEnd() {
+        RequestTiming.addDb(System.nanoTime() - batchStart, true);
+    }
+}
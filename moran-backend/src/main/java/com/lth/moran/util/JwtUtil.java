@@ -1,10 +1,11 @@
 package com.lth.moran.util;
 
 import io.jsonwebtoken.Claims;
-import io.jsonwebtoken.Jws;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.security.Keys;
 import io.jsonwebtoken.security.SignatureException;
+import jakarta.annotation.PostConstruct;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
@@ -34,8 +35,18 @@ public class JwtUtil {
     @Value("${jwt.expiration}")
     private Long expiration;
 
+    /** 签名密钥与解析器只在启动时构造一次，二者都是线程安全的 */
+    private SecretKey key;
+    private JwtParser parser;
+
+    @PostConstruct
+    public void init() {
+        key = buildKey();
+        parser = Jwts.parser().verifyWith(key).build();
+    }
+
     /** 构造签名密钥 */
-    private SecretKey getKey() {
+    private SecretKey buildKey() {
         try {
             byte[] keyBytes;
             // 步骤1: 尝试Base64解码（如果secret是预编码密钥）
@@ -84,7 +95,6 @@ public class JwtUtil {
     private String createToken(Map<String, Object> claims, String subject) {
         Date now = new Date();
         Date expiryDate = new Date(now.getTime() + expiration);
-        SecretKey key = getKey();
         return Jwts.builder()
                 .claims(claims)
                 .subject(subject)
@@ -96,7 +106,7 @@ public class JwtUtil {
 
     /** 泛型提取claim */
     public <T> T extractClaim(String token, Function<Claims, T> resolver) {
-        return resolver.apply(parseAllClaims(token));
+        return resolver.apply(parseClaims(token));
     }
 
     /** 提取用户名 */
@@ -118,17 +128,17 @@ public class JwtUtil {
     public Boolean validateToken(String token, UserDetails userDetails) {
         try {
             // 提取 claims
-            Claims claims = parseAllClaims(token);
+            Claims claims = parseClaims(token);
             final String extractedUsername = claims.getSubject();
             if (!extractedUsername.equals(userDetails.getUsername())) {
                 logger.warn("Token用户名不匹配: expected={}, actual={}", userDetails.getUsername(), extractedUsername);
                 return false;
             }
-            if (isTokenExpired(token)) {
+            if (claims.getExpiration().before(new Date())) {
                 logger.warn("Token已过期: {}", userDetails.getUsername());
                 return false;
             }
-            logger.debug("Token validated for user: {}, role: {}", userDetails.getUsername(), extractRole(token));
+            logger.debug("Token validated for user: {}, role: {}", userDetails.getUsername(), claims.get("role", String.class));
             return true;
         } catch (SignatureException e) {
             logger.error("JWT签名无效: {}", e.getMessage());
@@ -138,18 +148,12 @@ public class JwtUtil {
         return false;
     }
 
-    /** 内部解析方法 */
-    private Claims parseAllClaims(String token) {
-        SecretKey key = getKey();
-        Jws<Claims> jws = Jwts.parser()
-                .verifyWith(key)
-                .build()
-                .parseSignedClaims(token);
-        return jws.getPayload();
-    }
-
-    /** 是否过期 */
-    private Boolean isTokenExpired(String token) {
-        return extractExpiration(token).before(new Date());
+    /**
+     * 校验签名与过期时间并返回 claims，一次请求只需调用一次。
+     *
+     * @throws io.jsonwebtoken.JwtException 签名无效、格式错误或已过期
+     */
+    public Claims parseClaims(String token) {
+        return parser.parseSignedClaims(token).getPayload();
     }
 }
\ No newline at end of file
@@ -0,0 +1,30 @@
+package com.lth.moran.util;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+/**
+ * 统计当前线程执行的 SQL 条数，供 {@link com.lth.moran.filter.QueryCountFilter} 按请求汇总，用于发现 N+1 查询。
+ * 由 Hibernate 按类名实例化（hibernate.session_factory.statement_inspector），计数放在静态 ThreadLocal 中。
+ */
+public class QueryCounter implements StatementInspector {
+
+    private static final ThreadLocal<int[]> COUNT = ThreadLocal.withInitial(() -> new int[1]);
+
+    @Override
+    public String inspect(String sql) {
+        COUNT.get()[0]++;
+        return sql;
+    }
+
+    /** 清零并返回清零前的计数 */
+    public static int reset() {
+        int[] count = COUNT.get();
+        int value = count[0];
+        count[0] = 0;
+        return value;
+    }
+
+    public static int get() {
+        return COUNT.get()[0];
+    }
+}
@@ -0,0 +1,81 @@
+package com.lth.moran.util;
+
+import java.util.Locale;
+
+/**
+ * 当前请求在认证、数据库与文件系统上花费的时间，由 {@link com.lth.moran.filter.ServerTimingFilter} 开启并输出。
+ * 绑定在处理请求的线程上；没有开启时（如后台任务、流式响应的异步线程）各 add 方法什么也不做。
+ */
+public final class RequestTiming {
+
+    private static final ThreadLocal<RequestTiming> CURRENT = new ThreadLocal<>();
+
+    private final long startNanos = System.nanoTime();
+    private long authNanos;
+    private long dbNanos;
+    private int dbCount;
+    private long fsNanos;
+    private int fsCount;
+
+    private RequestTiming() {
+    }
+
+    public static RequestTiming start() {
+        RequestTiming timing = new RequestTiming();
+        CURRENT.set(timing);
+        return timing;
+    }
+
+    public static void end() {
+        CURRENT.remove();
+    }
+
+    public static void addAuth(long nanos) {
+        RequestTiming timing = CURRENT.get();
+        if (timing != null) {
+            timing.authNanos += nanos;
+        }
+    }
+
+    /** 一条 SQL 的执行耗时；获取连接的等待时间以 count=false 计入 */
+    public static void addDb(long nanos, boolean count) {
+        RequestTiming timing = CURRENT.get();
+        if (timing != null) {
+            timing.dbNanos += nanos;
+            if (count) {
+                timing.dbCount++;
+            }
+        }
+    }
+
+    public static void addFs(long nanos) {
+        RequestTiming timing = CURRENT.get();
+        if (timing != null) {
+            timing.fsNanos += nanos;
+            timing.fsCount++;
+        }
+    }
+
+    public long totalNanos() {
+        return System.nanoTime() - startNanos;
+    }
+
+    /** Server-Timing 头的值，耗时单位为毫秒 */
+    public String toHeader() {
+        return "auth;dur=" + millis(authNanos)
+                + ", db;dur=" + millis(dbNanos) + ";desc=\"" + dbCount + " queries\""
+                + ", fs;dur=" + millis(fsNanos) + ";desc=\"" + fsCount + " ops\""
+                + ", total;dur=" + millis(totalNanos());
+    }
+
+    /** 结构化日志用的 key=value 字段 */
+    public String toLogFields() {
+        return "total_ms=" + millis(totalNanos()) + " auth_ms=" + millis(authNanos)
+                + " db_ms=" + millis(dbNanos) + " db_queries=" + dbCount
+                + " fs_ms=" + millis(fsNanos) + " fs_ops=" + fsCount;
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.2f", nanos / 1_000_000.0);
+    }
+}
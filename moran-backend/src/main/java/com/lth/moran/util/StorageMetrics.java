@@ -0,0 +1,127 @@
+package com.lth.moran.util;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 存储路径上的指标：上传/下载字节数与吞吐量、文件系统操作耗时、ZIP 与缩略图任务耗时。
+ * 通过 /actuator/prometheus 暴露，直方图桶供 histogram_quantile 计算分位数。
+ */
+@Component
+public class StorageMetrics {
+
+    private static final double KB = 1024;
+    private static final double GB = 1024 * 1024 * 1024;
+
+    private final MeterRegistry registry;
+
+    private final DistributionSummary uploadBytes;
+    private final DistributionSummary uploadThroughput;
+    private final DistributionSummary downloadBytes;
+    private final DistributionSummary downloadThroughput;
+
+    public StorageMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.uploadBytes = bytes("moran.upload.bytes", "Bytes received per upload (or chunk)");
+        this.uploadThroughput = throughput("moran.upload.throughput", "Upload receive rate");
+        this.downloadBytes = bytes("moran.download.bytes", "Bytes served per download or preview");
+        this.downloadThroughput = throughput("moran.download.throughput", "Download send rate (sendfile excluded)");
+    }
+
+    @FunctionalInterface
+    public interface IoAction<T> {
+        T run() throws IOException;
+    }
+
+    /** 一次上传（或一个分片）接收完成 */
+    public void recordUpload(long bytes, long nanos) {
+        uploadBytes.record(bytes);
+        recordRate(uploadThroughput, bytes, nanos);
+    }
+
+    /**
+     * 一次下载发送完成。nanos 小于 0 表示交给了 sendfile，发送发生在响应提交之后，只记录字节数。
+     */
+    public void recordDownload(long bytes, long nanos) {
+        downloadBytes.record(bytes);
+        if (nanos >= 0) {
+            recordRate(downloadThroughput, bytes, nanos);
+        }
+    }
+
+    /** 计时一次文件系统操作（write / read / ingest / stat 等） */
+    public <T> T io(String operation, IoAction<T> action) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return action.run();
+        } finally {
+            recordFs(operation, System.nanoTime() - start);
+        }
+    }
+
+    /** 计时的 Files.exists */
+    public boolean exists(Path path) {
+        long start = System.nanoTime();
+        try {
+            return Files.exists(path);
+        } finally {
+            recordFs("stat", System.nanoTime() - start);
+        }
+    }
+
+    /** 后台任务耗时，如 job=zip / thumbnail，result 区分成功、跳过与失败 */
+    public void recordJob(String job, String result, long nanos) {
+        Timer.builder("moran.job.duration")
+                .description("Duration of ZIP export and thumbnail rendering jobs")
+                .tag("job", job)
+                .tag("result", result)
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void recordFs(String operation, long nanos) {
+        // 已注册的 Meter 由 registry 按名称与标签缓存，重复 register 只是一次查找
+        Timer.builder("moran.fs.operation")
+                .description("Filesystem call latency")
+                .tag("op", operation)
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+        RequestTiming.addFs(nanos);
+    }
+
+    private DistributionSummary bytes(String name, String description) {
+        return DistributionSummary.builder(name)
+                .description(description)
+                .baseUnit("bytes")
+                .publishPercentileHistogram()
+                .minimumExpectedValue(KB)
+                .maximumExpectedValue(16 * GB)
+                .register(registry);
+    }
+
+    private DistributionSummary throughput(String name, String description) {
+        return DistributionSummary.builder(name)
+                .description(description)
+                .baseUnit("bytes.per.second")
+                .publishPercentileHistogram()
+                .minimumExpectedValue(KB)
+                .maximumExpectedValue(4 * GB)
+                .register(registry);
+    }
+
+    private static void recordRate(DistributionSummary summary, long bytes, long nanos) {
+        // 太短的传输算出的速率没有意义（基本只反映缓冲区拷贝）
+        if (bytes > 0 && nanos > TimeUnit.MILLISECONDS.toNanos(1)) {
+            summary.record(bytes * 1e9 / nanos);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.lth.moran.util;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.lth.moran.entity.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.stereotype.Component;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 已验证 Token -> 用户的缓存，命中时请求无需再验签、查库。
+ * 条目在 TTL 与 Token 自身过期时间中较早者到期；用户信息变化时按用户名整体失效。
+ */
+@Component
+public class TokenCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(TokenCache.class);
+
+    private final Cache<String, Entry> cache;
+
+    public TokenCache(@Value("${jwt.cache.max-size:10000}") long maxSize,
+                      @Value("${jwt.cache.ttl-seconds:300}") long ttlSeconds) {
+        long ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfter(new Expiry<String, Entry>() {
+                    @Override
+                    public long expireAfterCreate(String token, Entry entry, long currentTime) {
+                        long untilExpiry = TimeUnit.MILLISECONDS.toNanos(entry.expiresAt - System.currentTimeMillis());
+                        return Math.max(0, Math.min(ttlNanos, untilExpiry));
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String token, Entry entry, long currentTime, long currentDuration) {
+                        return expireAfterCreate(token, entry, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String token, Entry entry, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .build();
+    }
+
+    /** 未命中或已过期时返回 null */
+    public UserDetails get(String token) {
+        Entry entry = cache.getIfPresent(token);
+        return entry != null ? entry.user : null;
+    }
+
+    public void put(String token, UserDetails user, Date expiresAt) {
+        cache.put(token, new Entry(user, expiresAt.getTime()));
+    }
+
+    /** 用户被修改或删除后调用，该用户的所有 Token 需重新验证（按 ID 匹配，改名也能失效） */
+    public void invalidateUser(User user) {
+        boolean removed = cache.asMap().values().removeIf(entry -> entry.user instanceof User cached
+                ? cached.getId().equals(user.getId())
+                : entry.user.getUsername().equals(user.getUsername()));
+        if (removed) {
+            logger.debug("Invalidated cached tokens for user {}", user.getId());
+        }
+    }
+
+    private record Entry(UserDetails user, long expiresAt) {
+    }
+}
@@ -0,0 +1,26 @@
+package com.lth.moran.util;
+
+import com.lth.moran.entity.User;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+import org.springframework.stereotype.Component;
+
+/**
+ * 用户实体被修改（密码、角色等）或删除时，使其已缓存的 Token 失效。
+ * 由 Hibernate 通过 Spring 容器实例化。
+ */
+@Component
+public class UserChangeListener {
+
+    private final TokenCache tokenCache;
+
+    public UserChangeListener(TokenCache tokenCache) {
+        this.tokenCache = tokenCache;
+    }
+
+    @PostUpdate
+    @PostRemove
+    public void onChange(User user) {
+        tokenCache.invalidateUser(user);
+    }
+}
@@ -0,0 +1,103 @@
+package com.lth.moran;
+
+import com.lth.moran.dto.BatchResult;
+import com.lth.moran.dto.FileItem;
+import com.lth.moran.entity.MoranFile;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 批量删除/移动/复制的逐项结果：失败的条目单独报告，其余照常处理；随所选文件夹处理的条目取该文件夹的结果。
+ */
+class BatchOperationTests extends FileServiceTestSupport {
+
+    private static final long MISSING_ID = Long.MAX_VALUE;
+
+    @Test
+    void moveReportsFailuresPerItemAndMovesTheRest() throws Exception {
+        MoranFile target = files.createFolder("target", null);
+        upload(target.getId(), "dup.txt", "existing");
+        MoranFile movable = upload(null, "ok.txt", "ok");
+        MoranFile duplicate = upload(null, "dup.txt", "dup");
+
+        List<BatchResult> results = files.moveFiles(
+                List.of(movable.getId(), duplicate.getId(), target.getId(), MISSING_ID), target.getId());
+
+        assertEquals(BatchResult.ok(movable.getId()), results.get(0));
+        assertEquals(BatchResult.failed(duplicate.getId(), "Name already exists: dup.txt"), results.get(1));
+        assertEquals(BatchResult.failed(target.getId(), "Cannot move a folder into itself"), results.get(2));
+        assertEquals(BatchResult.failed(MISSING_ID, "File not found: " + MISSING_ID), results.get(3));
+
+        assertEquals(target.getId(), files.getFileById(movable.getId()).getParentId());
+        assertEquals("/target/ok.txt", files.getFileById(movable.getId()).getPath());
+        assertNull(files.getFileById(duplicate.getId()).getParentId());
+    }
+
+    @Test
+    void nestedItemsTakeTheResultOfTheirSelectedFolder() throws Exception {
+        MoranFile target = files.createFolder("target", null);
+        files.createFolder("A", target.getId());
+        MoranFile folder = files.createFolder("A", null);
+        MoranFile nested = upload(folder.getId(), "x.txt", "x");
+
+        List<BatchResult> results = files.moveFiles(List.of(folder.getId(), nested.getId()), target.getId());
+
+        assertEquals(BatchResult.failed(folder.getId(), "Name already exists: A"), results.get(0));
+        assertEquals(BatchResult.failed(nested.getId(), "Name already exists: A"), results.get(1));
+        assertNull(files.getFileById(folder.getId()).getParentId());
+        assertEquals("/A/x.txt", files.getFileById(nested.getId()).getPath());
+    }
+
+    @Test
+    void nestedItemsMoveWithTheirSelectedFolder() throws Exception {
+        MoranFile target = files.createFolder("target", null);
+        MoranFile folder = files.createFolder("A", null);
+        MoranFile nested = upload(folder.getId(), "x.txt", "x");
+
+        List<BatchResult> results = files.moveFiles(List.of(nested.getId(), folder.getId()), target.getId());
+
+        assertTrue(results.stream().allMatch(BatchResult::isSuccess));
+        assertEquals(folder.getId(), files.getFileById(nested.getId()).getParentId());
+        assertEquals("/target/A/x.txt", files.getFileById(nested.getId()).getPath());
+    }
+
+    @Test
+    void copyIntoItselfFailsTogetherWithNestedItems() throws Exception {
+        MoranFile folder = files.createFolder("A", null);
+        MoranFile inside = files.createFolder("sub", folder.getId());
+        MoranFile nested = upload(folder.getId(), "x.txt", "x");
+        MoranFile other = upload(null, "y.txt", "y");
+
+        List<BatchResult> results = files.copyFiles(
+                List.of(folder.getId(), nested.getId(), other.getId()), inside.getId());
+
+        assertEquals(BatchResult.failed(folder.getId(), "Cannot copy a folder into itself"), results.get(0));
+        assertEquals(BatchResult.failed(nested.getId(), "Cannot copy a folder into itself"), results.get(1));
+        assertEquals(BatchResult.ok(other.getId()), results.get(2));
+        assertEquals(List.of("y.txt"), files.listFiles(inside.getId()).stream().map(FileItem::getName).toList());
+    }
+
+    @Test
+    void deleteMovesSelectedRootsToTheRecycleBin() throws Exception {
+        MoranFile folder = files.createFolder("A", null);
+        MoranFile nested = upload(folder.getId(), "x.txt", "x");
+        MoranFile file = upload(null, "y.txt", "y");
+
+        List<BatchResult> results = files.deleteFiles(List.of(folder.getId(), nested.getId(), file.getId(), MISSING_ID));
+
+        assertTrue(results.get(0).isSuccess());
+        assertTrue(results.get(1).isSuccess());
+        assertTrue(results.get(2).isSuccess());
+        assertFalse(results.get(3).isSuccess());
+        assertTrue(files.listFiles(null).isEmpty());
+        // 文件夹内的条目随文件夹删除，回收站中只有两项
+        assertEquals(List.of(folder.getId(), file.getId()),
+                files.listTrash().stream().map(FileItem::getId).sorted().toList());
+    }
+}
@@ -0,0 +1,81 @@
+package com.lth.moran;
+
+import com.lth.moran.entity.MoranFile;
+import com.lth.moran.entity.User;
+import com.lth.moran.repository.UserRepository;
+import com.lth.moran.service.FileService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+
+/**
+ * 服务层测试的公共部分：内存 H2（MySQL 模式，NULL 排序与 MySQL 一致）与临时存储目录，所有子类共用一个上下文。
+ * 每个测试以新建的用户身份运行，根目录互不干扰，不需要清理数据。
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:moran-test;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DEFAULT_NULL_ORDERING=LOW;DB_CLOSE_DELAY=-1",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.show-sql=false"
+})
+abstract class FileServiceTestSupport {
+
+    private static final Path STORAGE = createStorage();
+
+    @Autowired
+    protected FileService files;
+
+    @Autowired
+    protected UserRepository users;
+
+    protected User user;
+
+    @DynamicPropertySource
+    static void storage(DynamicPropertyRegistry registry) {
+        registry.add("storage.path", STORAGE::toString);
+    }
+
+    @BeforeEach
+    void signIn() {
+        User created = new User();
+        created.setUsername("test-" + UUID.randomUUID());
+        created.setPassword("unused");
+        user = users.save(created);
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken(user, null, user.getAuthorities()));
+    }
+
+    @AfterEach
+    void signOut() {
+        SecurityContextHolder.clearContext();
+    }
+
+    /** 通过正常上传路径（落盘、哈希、入库）写入一个文本文件 */
+    protected MoranFile upload(Long parentId, String name, String content) throws IOException {
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        return files.uploadStream(new ByteArrayInputStream(bytes), name, bytes.length, "text/plain", null, parentId);
+    }
+
+    private static Path createStorage() {
+        try {
+            return Files.createTempDirectory("moran-test-");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
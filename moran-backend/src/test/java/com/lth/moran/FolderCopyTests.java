@@ -0,0 +1,74 @@
+package com.lth.moran;
+
+import com.lth.moran.dto.FileItem;
+import com.lth.moran.entity.MoranFile;
+import com.lth.moran.service.BlobStore;
+import com.lth.moran.service.TrashPurger;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 复制文件夹：子树按层级重建，内容不复制，Blob 引用按复制的文件数增加；彻底删除副本后恢复原来的引用数。
+ */
+class FolderCopyTests extends FileServiceTestSupport {
+
+    @Autowired
+    private BlobStore blobStore;
+
+    @Autowired
+    private TrashPurger trashPurger;
+
+    @Test
+    void copiesSubtreeAndRetainsEachBlobOncePerFile() throws Exception {
+        MoranFile folder = files.createFolder("docs", null);
+        MoranFile sub = files.createFolder("sub", folder.getId());
+        MoranFile shared = upload(folder.getId(), "a.txt", "shared");
+        upload(folder.getId(), "b.txt", "shared");
+        upload(sub.getId(), "c.txt", "shared");
+        MoranFile unique = upload(folder.getId(), "d.txt", "unique " + user.getUsername());
+        long sharedBefore = refCount(shared.getSha256());
+        long uniqueBefore = refCount(unique.getSha256());
+
+        MoranFile copy = files.copyFile(folder.getId(), null);
+
+        assertEquals("docs (1)", copy.getName());
+        assertEquals(sharedBefore + 3, refCount(shared.getSha256()));
+        assertEquals(uniqueBefore + 1, refCount(unique.getSha256()));
+        List<FileItem> children = files.listFiles(copy.getId());
+        assertEquals(List.of("a.txt", "b.txt", "d.txt", "sub"), children.stream().map(FileItem::getName).sorted().toList());
+        FileItem subCopy = children.stream().filter(FileItem::getIsFolder).findFirst().orElseThrow();
+        assertEquals("/docs (1)/sub/", subCopy.getPath());
+        List<FileItem> nested = files.listFiles(subCopy.getId());
+        assertEquals(1, nested.size());
+        assertEquals("/docs (1)/sub/c.txt", nested.get(0).getPath());
+        assertTrue(nested.stream().noneMatch(FileItem::getLost));
+
+        files.deleteFile(copy.getId());
+        files.purgeFromTrash(copy.getId());
+        trashPurger.purgeExpired();
+        assertEquals(sharedBefore, refCount(shared.getSha256()));
+        assertEquals(uniqueBefore, refCount(unique.getSha256()));
+    }
+
+    @Test
+    void copiesSupplementaryCharacterPathsIntact() throws Exception {
+        MoranFile folder = files.createFolder("照片 📷", null);
+        upload(folder.getId(), "a.txt", "a");
+        MoranFile target = files.createFolder("target", null);
+
+        MoranFile copy = files.copyFile(folder.getId(), target.getId());
+
+        List<FileItem> children = files.listFiles(copy.getId());
+        assertEquals(1, children.size());
+        assertEquals("/target/照片 📷/a.txt", children.get(0).getPath());
+    }
+
+    private long refCount(String hash) {
+        return blobStore.find(hash).orElseThrow().getRefCount();
+    }
+}
@@ -0,0 +1,64 @@
+package com.lth.moran;
+
+import com.lth.moran.dto.FileItem;
+import com.lth.moran.dto.FilePage;
+import com.lth.moran.entity.MoranFile;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * 键集分页：逐页翻完的结果与一次取完相同，不重复、不遗漏。文件夹的 size 为 NULL，
+ * 且有多行排序键相同，游标跨过 NULL 与非 NULL 的边界时最容易出错。
+ */
+class KeysetPaginationTests extends FileServiceTestSupport {
+
+    private MoranFile folder;
+
+    @BeforeEach
+    void populate() throws Exception {
+        folder = files.createFolder("paged", null);
+        files.createFolder("b-folder", folder.getId());
+        files.createFolder("a-folder", folder.getId());
+        files.createFolder("c-folder", folder.getId());
+        upload(folder.getId(), "e.txt", "12");
+        upload(folder.getId(), "a.txt", "1");
+        upload(folder.getId(), "d.txt", "12");
+        upload(folder.getId(), "c.txt", "123");
+        upload(folder.getId(), "b.txt", "12");
+    }
+
+    @ParameterizedTest
+    @CsvSource({"name,asc", "name,desc", "size,asc", "size,desc", "time,asc", "time,desc"})
+    void pagesMatchASingleListing(String sort, String order) {
+        List<Long> all = files.listFilesPage(folder.getId(), 200, sort, order, null).getItems().stream()
+                .map(FileItem::getId).toList();
+        assertEquals(8, all.size());
+
+        for (int pageSize = 1; pageSize <= 3; pageSize++) {
+            List<Long> paged = new ArrayList<>();
+            String cursor = null;
+            do {
+                FilePage page = files.listFilesPage(folder.getId(), pageSize, sort, order, cursor);
+                page.getItems().forEach(item -> paged.add(item.getId()));
+                cursor = page.getNextCursor();
+            } while (cursor != null);
+            assertEquals(all, paged, "page size " + pageSize);
+        }
+    }
+
+    @ParameterizedTest
+    @CsvSource({"asc", "desc"})
+    void foldersSortAsNullSizes(String order) {
+        List<FileItem> items = files.listFilesPage(folder.getId(), 200, "size", order, null).getItems();
+        // MySQL 中 NULL 升序排最前、降序排最后
+        List<FileItem> folders = "asc".equals(order) ? items.subList(0, 3) : items.subList(5, 8);
+        folders.forEach(item -> assertNull(item.getSize()));
+    }
+}
@@ -0,0 +1,151 @@
+package com.lth.moran;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 慢速客户端压测：对一个运行中的服务同时发起大量只读响应头、不读响应体的下载，
+ * 统计有多少个下载真正开始响应（服务端达到的并发数），同时测量列表接口的延迟。
+ * 分别以 spring.threads.virtual.enabled=false / true 启动服务各跑一次即可对比。
+ * <p>
+ * 默认跳过，需显式指定目标：
+ * <pre>
+ * mvn test -Dtest=SlowReaderLoadTest -Dloadtest.url=http://localhost:8080 -Dloadtest.token=... \
+ *     -Dloadtest.path=/api/files/1/download-zip [-Dloadtest.clients=500] [-Dloadtest.hold-seconds=20]
+ * </pre>
+ * 下载内容要明显大于套接字缓冲区（几 MB 以上），服务端写满缓冲区后才会阻塞。
+ */
+@EnabledIfSystemProperty(named = "loadtest.url", matches = ".+")
+class SlowReaderLoadTest {
+
+    private final URI base = URI.create(System.getProperty("loadtest.url"));
+    private final String token = System.getProperty("loadtest.token", "");
+    private final String path = System.getProperty("loadtest.path", "/api/files");
+    private final int clients = Integer.getInteger("loadtest.clients", 500);
+    private final int holdSeconds = Integer.getInteger("loadtest.hold-seconds", 20);
+
+    @Test
+    void slowReaders() throws Exception {
+        List<Socket> sockets = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger started = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor();
+        try {
+            for (int i = 0; i < clients; i++) {
+                pool.submit(() -> {
+                    try {
+                        Socket socket = openSlowReader();
+                        sockets.add(socket);
+                        if (readStatusLine(socket.getInputStream()).contains(" 200")) {
+                            started.incrementAndGet();
+                        } else {
+                            failed.incrementAndGet();
+                        }
+                    } catch (SocketTimeoutException e) {
+                        // 整个测试期间都没有等到响应：仍在服务端排队
+                    } catch (IOException e) {
+                        failed.incrementAndGet();
+                    }
+                    return null;
+                });
+            }
+
+            // 慢速下载占住服务端期间，持续测量快速请求的延迟
+            HttpClient http = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+            HttpRequest listing = HttpRequest.newBuilder(base.resolve("/api/files"))
+                    .header("Authorization", "Bearer " + token)
+                    .timeout(Duration.ofSeconds(10))
+                    .build();
+            List<Long> latencies = new ArrayList<>();
+            int listingErrors = 0;
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(holdSeconds);
+            while (System.nanoTime() < deadline) {
+                long start = System.nanoTime();
+                try {
+                    HttpResponse<Void> response = http.send(listing, HttpResponse.BodyHandlers.discarding());
+                    if (response.statusCode() == 200) {
+                        latencies.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                    } else {
+                        listingErrors++;
+                    }
+                } catch (IOException e) {
+                    listingErrors++;
+                }
+                Thread.sleep(200);
+            }
+
+            Collections.sort(latencies);
+            System.out.printf("slow readers: %d requested, %d streaming, %d failed, %d still queued%n",
+                    clients, started.get(), failed.get(), clients - started.get() - failed.get());
+            System.out.printf("listing during load: %d ok, %d errors, p50=%d ms, max=%d ms%n",
+                    latencies.size(), listingErrors, percentile(latencies, 50), percentile(latencies, 100));
+            assertTrue(started.get() > 0, "No slow reader received a response");
+        } finally {
+            synchronized (sockets) {
+                for (Socket socket : sockets) {
+                    try {
+                        socket.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+            pool.shutdownNow();
+        }
+    }
+
+    /** 建立连接并发出请求；接收缓冲区设得很小，之后不再读取，模拟极慢的下载端 */
+    private Socket openSlowReader() throws IOException {
+        Socket socket = new Socket();
+        socket.setReceiveBufferSize(4096);
+        socket.setSoTimeout(holdSeconds * 1000);
+        int port = base.getPort() == -1 ? 80 : base.getPort();
+        socket.connect(new InetSocketAddress(base.getHost(), port), 5000);
+        String request = "GET " + path + " HTTP/1.1\r\n"
+                + "Host: " + base.getHost() + "\r\n"
+                + "Authorization: Bearer " + token + "\r\n"
+                + "\r\n";
+        OutputStream out = socket.getOutputStream();
+        out.write(request.getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+        return socket;
+    }
+
+    private static String readStatusLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1 && c != '\n') {
+            line.append((char) c);
+        }
+        return line.toString();
+    }
+
+    private static long percentile(List<Long> sorted, int p) {
+        if (sorted.isEmpty()) {
+            return -1;
+        }
+        int index = Math.max(0, (int) Math.ceil(p / 100.0 * sorted.size()) - 1);
+        return sorted.get(index);
+    }
+}
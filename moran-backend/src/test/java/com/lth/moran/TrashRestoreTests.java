@@ -0,0 +1,75 @@
+package com.lth.moran;
+
+import com.lth.moran.dto.FileItem;
+import com.lth.moran.entity.MoranFile;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 回收站恢复：连同子树恢复到原位置；原文件夹已不存在时恢复到根目录。
+ */
+class TrashRestoreTests extends FileServiceTestSupport {
+
+    @Test
+    void restoresFolderTogetherWithItsSubtree() throws Exception {
+        MoranFile folder = files.createFolder("docs", null);
+        MoranFile child = upload(folder.getId(), "a.txt", "a");
+
+        files.deleteFile(folder.getId());
+        assertTrue(files.listFiles(null).isEmpty());
+        assertEquals(List.of(folder.getId()), files.listTrash().stream().map(FileItem::getId).toList());
+
+        MoranFile restored = files.restoreFile(folder.getId());
+        assertFalse(restored.getDeleted());
+        assertNull(restored.getTrashRootId());
+        assertEquals(List.of(child.getId()), files.listFiles(folder.getId()).stream().map(FileItem::getId).toList());
+        assertTrue(files.listTrash().isEmpty());
+    }
+
+    @Test
+    void restoresToRootWhenTheParentIsGone() throws Exception {
+        MoranFile folder = files.createFolder("docs", null);
+        MoranFile file = upload(folder.getId(), "a.txt", "a");
+
+        files.deleteFile(file.getId());
+        files.deleteFile(folder.getId());
+
+        MoranFile restored = files.restoreFile(file.getId());
+        assertFalse(restored.getDeleted());
+        assertNull(restored.getParentId());
+        assertEquals("/", restored.getAncestors());
+        assertEquals("/a.txt", restored.getPath());
+        assertEquals(List.of(file.getId()), files.listFiles(null).stream().map(FileItem::getId).toList());
+        assertEquals(List.of(folder.getId()), files.listTrash().stream().map(FileItem::getId).toList());
+    }
+
+    @Test
+    void restoreToRootFailsOnNameConflict() throws Exception {
+        MoranFile folder = files.createFolder("docs", null);
+        MoranFile file = upload(folder.getId(), "a.txt", "a");
+        files.deleteFile(file.getId());
+        files.deleteFile(folder.getId());
+        upload(null, "a.txt", "other");
+
+        RuntimeException e = assertThrows(RuntimeException.class, () -> files.restoreFile(file.getId()));
+        assertEquals("Name already exists: a.txt", e.getMessage());
+        assertEquals(2, files.listTrash().size());  // 回滚后仍在回收站中
+    }
+
+    @Test
+    void restoreFailsOnNameConflictInTheOriginalFolder() throws Exception {
+        MoranFile file = upload(null, "a.txt", "a");
+        files.deleteFile(file.getId());
+        upload(null, "a.txt", "other");
+
+        RuntimeException e = assertThrows(RuntimeException.class, () -> files.restoreFile(file.getId()));
+        assertEquals("Name already exists: a.txt", e.getMessage());
+    }
+}
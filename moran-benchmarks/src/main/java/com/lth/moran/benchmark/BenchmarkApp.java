@@ -0,0 +1,143 @@
+package com.lth.moran.benchmark;
+
+import com.lth.moran.MoranApplication;
+import com.lth.moran.entity.MoranFile;
+import com.lth.moran.entity.User;
+import com.lth.moran.repository.UserRepository;
+import com.lth.moran.service.FileService;
+import com.lth.moran.service.TrashPurger;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * 基准测试用的应用实例：完整的 Spring 上下文，数据库换成内存 H2，存储目录换成临时目录，不启动 Web 服务器。
+ * 以默认 admin 身份运行（全局 SecurityContext，JMH 的 setup 与测量线程可能不同）。
+ */
+public final class BenchmarkApp implements AutoCloseable {
+
+    private static final int BATCH_SIZE = 1000;
+
+    private final Path storage;
+    private final ConfigurableApplicationContext context;
+    private final User admin;
+
+    private BenchmarkApp(Path storage, ConfigurableApplicationContext context, User admin) {
+        this.storage = storage;
+        this.context = context;
+        this.admin = admin;
+    }
+
+    public static BenchmarkApp start() throws IOException {
+        Path storage = Files.createTempDirectory("moran-bench-");
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(MoranApplication.class)
+                .web(WebApplicationType.NONE)
+                .logStartupInfo(false)
+                .properties(
+                        "spring.main.banner-mode=off",
+                        "spring.datasource.url=jdbc:h2:mem:bench-" + UUID.randomUUID() + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE",
+                        "spring.datasource.driver-class-name=org.h2.Driver",
+                        "spring.datasource.username=sa",
+                        "spring.datasource.password=",
+                        "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+                        "spring.jpa.show-sql=false",
+                        "storage.path=" + storage,
+                        "quota.total=" + Long.MAX_VALUE / 4,
+                        "logging.level.root=WARN",
+                        "logging.level.com.lth.moran=ERROR")  // 每次上传、丢失标记都会打日志，会干扰测量
+                .run();
+        User admin = context.getBean(UserRepository.class).findByUsername("admin")
+                .orElseThrow(() -> new IllegalStateException("Default admin was not created"));
+        SecurityContextHolder.setStrategyName(SecurityContextHolder.MODE_GLOBAL);
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken(admin, null, admin.getAuthorities()));
+        return new BenchmarkApp(storage, context, admin);
+    }
+
+    public <T> T bean(Class<T> type) {
+        return context.getBean(type);
+    }
+
+    public FileService files() {
+        return bean(FileService.class);
+    }
+
+    public User admin() {
+        return admin;
+    }
+
+    /** 通过正常上传路径（落盘、哈希、入库）写入一个文件 */
+    public MoranFile upload(Long parentId, String name, byte[] content, String mimeType) throws IOException {
+        return files().uploadStream(new ByteArrayInputStream(content), name, content.length, mimeType, null, parentId);
+    }
+
+    /** 删除并立即清理，不经过回收站保留期，释放 Blob 引用与配额 */
+    public void deletePermanently(Long id) {
+        files().deleteFile(id);
+        files().purgeFromTrash(id);
+        bean(TrashPurger.class).purgeExpired();
+    }
+
+    /**
+     * 绕过 FileService 直接批量插入 count 个子节点，用于快速构造大目录。名称为 prefix + 7 位序号，
+     * 文件共用同一个 sha256（调用方需保证该 Blob 存在，且不会通过这些记录释放它）。
+     *
+     * @return 插入的第一个子节点的 ID（ID 连续递增）
+     */
+    public long insertChildren(MoranFile parent, String prefix, int count, boolean folders, String sha256, long size) {
+        JdbcTemplate jdbc = bean(JdbcTemplate.class);
+        String basePath = parent == null ? "/" : parent.getPath();
+        String ancestors = parent == null ? "/" : parent.getAncestors() + parent.getId() + "/";
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        String sql = "INSERT INTO files (name, path, size, mime_type, sha256, upload_time, user_id, parent_id,"
+                + " ancestors, is_folder, deleted) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, false)";
+        Long firstId = null;
+        for (int start = 0; start < count; start += BATCH_SIZE) {
+            List<Object[]> batch = new ArrayList<>(BATCH_SIZE);
+            for (int i = start; i < Math.min(count, start + BATCH_SIZE); i++) {
+                String name = String.format("%s%07d", prefix, i);
+                batch.add(new Object[]{name, basePath + name + (folders ? "/" : ""),
+                        folders ? null : size, folders ? null : "application/octet-stream", folders ? null : sha256,
+                        now, admin.getId(), parent == null ? null : parent.getId(), ancestors, folders});
+            }
+            jdbc.batchUpdate(sql, batch);
+            if (firstId == null) {
+                firstId = jdbc.queryForObject("SELECT MIN(id) FROM files WHERE ancestors = ? AND name = ?",
+                        Long.class, ancestors, String.format("%s%07d", prefix, start));
+            }
+        }
+        return firstId == null ? -1 : firstId;
+    }
+
+    @Override
+    public void close() {
+        context.close();
+        try (Stream<Path> paths = Files.walk(storage)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.lth.moran.benchmark;
+
+import com.lth.moran.entity.MoranFile;
+import com.lth.moran.service.FileService;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 文件内容吞吐：上传（落临时文件 + SHA-256 + 入库）与文件夹 ZIP 打包。
+ * 除 ops/s 外另报告 bytes（每秒处理的字节数）。
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+public class ContentBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class App {
+        BenchmarkApp app;
+        FileService files;
+
+        @Setup(Level.Trial)
+        public void start() throws IOException {
+            app = BenchmarkApp.start();
+            files = app.files();
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() {
+            app.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Throughput {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    /** 每次上传同样的内容，测量后删除，下一次重新入库 */
+    @State(Scope.Benchmark)
+    public static class Upload {
+        @Param({"1048576", "67108864"})
+        int uploadSize;
+
+        byte[] content;
+        Long uploadedId;
+
+        @Setup(Level.Trial)
+        public void build() {
+            content = randomBytes(uploadSize, uploadSize);
+        }
+
+        @TearDown(Level.Invocation)
+        public void removeUploaded(App state) {
+            if (uploadedId != null) {
+                state.app.deletePermanently(uploadedId);
+                uploadedId = null;
+            }
+        }
+    }
+
+    /** 含 fileCount 个随机内容文件的文件夹；video/mp4 视为已压缩，以 STORED 方式打包 */
+    @State(Scope.Benchmark)
+    public static class Zip {
+        @Param({"16"})
+        int fileCount;
+
+        @Param({"1048576"})
+        int fileSize;
+
+        @Param({"application/octet-stream", "video/mp4"})
+        String mimeType;
+
+        MoranFile folder;
+        long totalBytes;
+
+        @Setup(Level.Trial)
+        public void build(App state) throws IOException {
+            folder = state.files.createFolder("zip", null);
+            for (int i = 0; i < fileCount; i++) {
+                state.app.upload(folder.getId(), "file-" + i, randomBytes(fileSize, i), mimeType);
+            }
+            totalBytes = (long) fileCount * fileSize;
+        }
+    }
+
+    @Benchmark
+    public MoranFile upload(App state, Upload upload, Throughput throughput) throws IOException {
+        MoranFile saved = state.app.upload(null, "upload.bin", upload.content, "application/octet-stream");
+        upload.uploadedId = saved.getId();
+        throughput.bytes += upload.content.length;
+        return saved;
+    }
+
+    @Benchmark
+    public long zipFolder(App state, Zip zip, Throughput throughput) throws IOException {
+        CountingOutputStream out = new CountingOutputStream();
+        state.files.zipFolder(zip.folder, out);
+        throughput.bytes += zip.totalBytes;
+        return out.count;
+    }
+
+    private static byte[] randomBytes(int size, long seed) {
+        byte[] bytes = new byte[size];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    /** 丢弃输出，只计数 */
+    private static class CountingOutputStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.lth.moran.benchmark;
+
+import com.lth.moran.dto.FileItem;
+import com.lth.moran.entity.MoranFile;
+import com.lth.moran.service.BlobStore;
+import com.lth.moran.service.FileService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 目录树相关的路径计算：深层目录下建文件夹与面包屑（物化路径，应与深度无关）、
+ * 同名冲突时的重命名、整棵子树的重命名（单条 UPDATE）。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+public class FileTreeBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class App {
+        BenchmarkApp app;
+        FileService files;
+
+        @Setup(Level.Trial)
+        public void start() throws IOException {
+            app = BenchmarkApp.start();
+            files = app.files();
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() {
+            app.close();
+        }
+    }
+
+    /** depth 层嵌套文件夹，在最深一层操作 */
+    @State(Scope.Benchmark)
+    public static class DeepTree {
+        @Param({"1", "16", "64"})
+        int depth;
+
+        MoranFile leaf;
+        int counter;
+
+        @Setup(Level.Trial)
+        public void build(App state) {
+            Long parentId = null;
+            for (int i = 0; i < depth; i++) {
+                leaf = state.files.createFolder("level-" + i, parentId);
+                parentId = leaf.getId();
+            }
+        }
+    }
+
+    /** 目标文件夹中已有 report.txt、report (1).txt ... 共 conflicts 个同名文件 */
+    @State(Scope.Benchmark)
+    public static class Conflicts {
+        @Param({"0", "10", "90"})
+        int conflicts;
+
+        MoranFile folder;
+        String sha256;
+        String headHash;
+        long size;
+        Long uploadedId;
+
+        @Setup(Level.Trial)
+        public void build(App state) throws IOException {
+            // 秒传用的 Blob 由文件夹外的一条记录持有，每次测量后删除新记录不会回收它
+            byte[] content = "conflict benchmark".getBytes(StandardCharsets.UTF_8);
+            MoranFile seed = state.app.upload(null, "seed-" + conflicts + ".txt", content, "text/plain");
+            sha256 = seed.getSha256();
+            headHash = state.app.bean(BlobStore.class).find(sha256).orElseThrow().getHeadHash();
+            size = content.length;
+
+            folder = state.files.createFolder("conflicts-" + conflicts, null);
+            for (int i = 0; i < conflicts; i++) {
+                String name = i == 0 ? "report.txt" : "report (" + i + ").txt";
+                state.files.instantUpload(name, size, sha256, headHash, "text/plain", folder.getId());
+            }
+        }
+
+        @TearDown(Level.Invocation)
+        public void removeUploaded(App state) {
+            if (uploadedId != null) {
+                state.app.deletePermanently(uploadedId);
+                uploadedId = null;
+            }
+        }
+    }
+
+    /** 一个文件夹下 100 个子文件夹，共 descendants 个子孙 */
+    @State(Scope.Benchmark)
+    public static class Subtree {
+        @Param({"10000", "100000"})
+        int descendants;
+
+        MoranFile root;
+        boolean renamed;
+
+        @Setup(Level.Trial)
+        public void build(App state) throws IOException {
+            MoranFile seed = state.app.upload(null, "subtree-seed.bin", new byte[1024], "application/octet-stream");
+            root = state.files.createFolder("subtree-" + descendants, null);
+            int folders = 100;
+            long firstFolderId = state.app.insertChildren(root, "dir", folders, true, null, 0);
+            int perFolder = descendants / folders - 1;
+            for (int i = 0; i < folders; i++) {
+                MoranFile folder = new MoranFile();
+                folder.setId(firstFolderId + i);
+                folder.setPath(root.getPath() + String.format("dir%07d", i) + "/");
+                folder.setAncestors(root.getAncestors() + root.getId() + "/");
+                state.app.insertChildren(folder, "file", perFolder, false, seed.getSha256(), seed.getSize());
+            }
+        }
+    }
+
+    @Benchmark
+    public MoranFile createFolderAtDepth(App state, DeepTree tree) {
+        return state.files.createFolder("folder-" + tree.counter++, tree.leaf.getId());
+    }
+
+    @Benchmark
+    public List<FileItem> pathChainAtDepth(App state, DeepTree tree) {
+        return state.files.getPathChain(tree.leaf.getId());
+    }
+
+    @Benchmark
+    public MoranFile uploadWithNameConflicts(App state, Conflicts conflicts) {
+        MoranFile saved = state.files.instantUpload("report.txt", conflicts.size, conflicts.sha256,
+                conflicts.headHash, "text/plain", conflicts.folder.getId());
+        conflicts.uploadedId = saved.getId();
+        return saved;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 3)
+    @Measurement(iterations = 10)
+    public MoranFile renameSubtree(App state, Subtree subtree) {
+        subtree.renamed = !subtree.renamed;
+        String name = "subtree-" + subtree.descendants + (subtree.renamed ? "-renamed" : "");
+        return state.files.renameFile(subtree.root.getId(), name);
+    }
+}
@@ -0,0 +1,76 @@
+package com.lth.moran.benchmark;
+
+import com.lth.moran.entity.User;
+import com.lth.moran.util.JwtUtil;
+import com.lth.moran.util.TokenCache;
+import io.jsonwebtoken.Claims;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.core.userdetails.UserDetails;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每个请求都要经过的 JWT 认证：签发、验签解析、完整校验，以及过滤器命中 Token 缓存的路径。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JwtBenchmark {
+
+    private BenchmarkApp app;
+    private JwtUtil jwtUtil;
+    private TokenCache tokenCache;
+    private User admin;
+    private String token;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        app = BenchmarkApp.start();
+        jwtUtil = app.bean(JwtUtil.class);
+        tokenCache = app.bean(TokenCache.class);
+        admin = app.admin();
+        token = jwtUtil.generateToken(admin);
+        Claims claims = jwtUtil.parseClaims(token);
+        tokenCache.put(token, admin, claims.getExpiration());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        app.close();
+    }
+
+    @Benchmark
+    public String generate() {
+        return jwtUtil.generateToken(admin);
+    }
+
+    @Benchmark
+    public Claims parse() {
+        return jwtUtil.parseClaims(token);
+    }
+
+    @Benchmark
+    public Boolean validate() {
+        return jwtUtil.validateToken(token, admin);
+    }
+
+    @Benchmark
+    public UserDetails cachedLookup() {
+        return tokenCache.get(token);
+    }
+}
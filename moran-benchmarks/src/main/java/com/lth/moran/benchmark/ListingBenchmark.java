@@ -0,0 +1,157 @@
+package com.lth.moran.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lth.moran.dto.FileItem;
+import com.lth.moran.dto.FilePage;
+import com.lth.moran.entity.MoranFile;
+import com.lth.moran.repository.MoranFileRepository;
+import com.lth.moran.service.FileService;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.domain.PageRequest;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 文件夹列表：完整列表（逐项做丢失检查）与 keyset 分页。分页在首页与中间页的耗时应当相同。
+ * serialize* 另报告每秒输出的行数（rows）与 JSON 字节数（bytes），bytes / rows 即每行的字节数，
+ * 对比 FileItem 投影与实体的响应体积。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx3g"})
+public class ListingBenchmark {
+
+    private static final int PAGE_SIZE = 100;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Serialized {
+        public long rows;
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            rows = 0;
+            bytes = 0;
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class App {
+        BenchmarkApp app;
+        FileService files;
+        MoranFileRepository repository;
+        ObjectMapper mapper;
+        MoranFile seed;
+
+        @Setup(Level.Trial)
+        public void start() throws IOException {
+            app = BenchmarkApp.start();
+            files = app.files();
+            repository = app.bean(MoranFileRepository.class);
+            mapper = app.bean(ObjectMapper.class);
+            // 所有记录共用一个真实存在的 Blob，丢失检查走内存索引
+            seed = app.upload(null, "seed.bin", new byte[1024], "application/octet-stream");
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() {
+            app.close();
+        }
+    }
+
+    /** 完整列表的文件夹 */
+    @State(Scope.Benchmark)
+    public static class FullListing {
+        @Param({"1000", "10000"})
+        int children;
+
+        MoranFile folder;
+
+        @Setup(Level.Trial)
+        public void build(App state) {
+            folder = state.files.createFolder("list-" + children, null);
+            state.app.insertChildren(folder, "file", children, false, state.seed.getSha256(), state.seed.getSize());
+        }
+    }
+
+    /** 分页的文件夹 */
+    @State(Scope.Benchmark)
+    public static class Paged {
+        @Param({"1000000"})
+        int rows;
+
+        MoranFile folder;
+        long firstId;
+        String middleCursor;
+
+        @Setup(Level.Trial)
+        public void build(App state) {
+            folder = state.files.createFolder("page-" + rows, null);
+            firstId = state.app.insertChildren(folder, "file", rows, false, state.seed.getSha256(), state.seed.getSize());
+            // 直接构造指向中间位置的游标（格式见 FileService.encodeCursor），省去翻 rows / 2 页
+            int middle = rows / 2;
+            String raw = "NAME|" + (firstId + middle) + "|v" + String.format("file%07d", middle);
+            middleCursor = Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @Benchmark
+    public List<FileItem> listAll(App state, FullListing listing) {
+        return state.files.listFiles(listing.folder.getId());
+    }
+
+    @Benchmark
+    public FilePage firstPage(App state, Paged paged) {
+        return state.files.listFilesPage(paged.folder.getId(), PAGE_SIZE, "name", "asc", null);
+    }
+
+    @Benchmark
+    public FilePage middlePage(App state, Paged paged) {
+        return state.files.listFilesPage(paged.folder.getId(), PAGE_SIZE, "name", "asc", paged.middleCursor);
+    }
+
+    /** 一页 FileItem 投影序列化为响应 JSON */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public int serializeItems(App state, Paged paged, Serialized serialized) throws IOException {
+        FilePage page = state.files.listFilesPage(paged.folder.getId(), PAGE_SIZE, "name", "asc", null);
+        byte[] json = state.mapper.writeValueAsBytes(page);
+        serialized.rows += page.getItems().size();
+        serialized.bytes += json.length;
+        return json.length;
+    }
+
+    /** 对照：同样多的行按实体加载并序列化（投影之前列表返回的形式） */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public int serializeEntities(App state, Paged paged, Serialized serialized) throws IOException {
+        List<MoranFile> rows = state.repository.findByIdGreaterThanOrderByIdAsc(paged.firstId - 1,
+                PageRequest.of(0, PAGE_SIZE));
+        byte[] json = state.mapper.writeValueAsBytes(rows);
+        serialized.rows += rows.size();
+        serialized.bytes += json.length;
+        return json.length;
+    }
+}
@@ -62,7 +62,7 @@ function FilePreview({ open, onClose, fileId, fileName = '' }) {
           <Alert severity="error">{error}</Alert>
         ) : isImage ? (
           <img
-            src={previewUrl}
+            src={`${previewUrl}?size=2048`}
             alt={fileName}
             style={{ maxWidth: '100%', maxHeight: '70vh', objectFit: 'contain' }}
             onError={() => setError('预览加载失败')}
@@ -2,6 +2,52 @@ import { useMutation } from '@tanstack/react-query';
 import { axiosInstance } from '../utils/api';
 import { saveAs } from 'file-saver';
 
+/** 超过该大小的文件走分片上传会话（可续传、并行） */
+const CHUNKED_UPLOAD_THRESHOLD = 32 * 1024 * 1024;
+/** 同时上传的分片数 */
+const CHUNK_CONCURRENCY = 3;
+/** 单个分片失败后的重试次数 */
+const CHUNK_RETRIES = 3;
+
+/**
+ * 分片上传：创建会话 -> 并行 PUT 缺失分片（失败重试）-> commit。
+ * 每个分片单独请求，不受整体 30s 超时限制。
+ */
+const uploadInChunks = async (file, parentId) => {
+  const { data: session } = await axiosInstance.post('/files/uploads', {
+    name: file.name,
+    parentId: parentId || null,
+    size: file.size,
+    mimeType: file.type || null,
+  });
+
+  const queue = [...session.missingChunks];
+  const uploadChunk = async (index) => {
+    const offset = index * session.chunkSize;
+    const blob = file.slice(offset, Math.min(offset + session.chunkSize, file.size));
+    for (let attempt = 0; ; attempt += 1) {
+      try {
+        await axiosInstance.put(`/files/uploads/${session.id}`, blob, {
+          params: { offset },
+          headers: { 'Content-Type': 'application/octet-stream' },
+          timeout: 120000,
+        });
+        return;
+      } catch (err) {
+        if (attempt >= CHUNK_RETRIES) throw err;
+      }
+    }
+  };
+  const worker = async () => {
+    while (queue.length > 0) {
+      await uploadChunk(queue.shift());
+    }
+  };
+  await Promise.all(Array.from({ length: CHUNK_CONCURRENCY }, worker));
+
+  return axiosInstance.post(`/files/uploads/${session.id}/commit`);
+};
+
 /**
  * useFileMutations hook - 文件操作突变钩子（修正版 + 优化版）
  * @param {Object} options - { queryClient, files, setError, parentId }
@@ -19,6 +65,10 @@ export const useFileMutations = ({ queryClient, files, setError, parentId }) =>
   /** 上传文件 */
   const uploadMutation = useMutation({
     mutationFn: async (file) => {
+      if (file.size > CHUNKED_UPLOAD_THRESHOLD) {
+        return uploadInChunks(file, parentId);
+      }
+
       const formData = new FormData();
       formData.append('file', file);
 